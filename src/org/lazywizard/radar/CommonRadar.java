@@ -2,6 +2,7 @@ package org.lazywizard.radar;
 
 import java.awt.Color;
 import java.util.List;
+import org.lazywizard.radar.util.SpriteBatchManager;
 import org.lwjgl.util.vector.Vector2f;
 
 /**
@@ -43,6 +44,18 @@ public interface CommonRadar<T>
      */
     public void disableStencilTest();
 
+    /**
+     * Returns the shared queue that finished
+     * {@link org.lazywizard.radar.util.SpriteBatch}es can be added to instead
+     * of drawing them directly, so sprites from every renderer are drawn
+     * together with as few OpenGL state changes as possible.
+     * <p>
+     * @return The radar's {@link SpriteBatchManager}.
+     * <p>
+     * @since 3.1
+     */
+    public SpriteBatchManager getSpriteBatchManager();
+
     /**
      * Returns the color of friendly contacts on the radar.
      * <p>
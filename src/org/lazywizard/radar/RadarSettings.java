@@ -23,6 +23,7 @@ import org.lazywizard.radar.renderers.BaseRenderer;
 import org.lazywizard.radar.renderers.CombatRenderer;
 import org.lazywizard.radar.renderers.NullRenderer;
 import org.lwjgl.input.Keyboard;
+import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GLContext;
 
@@ -47,9 +48,10 @@ public class RadarSettings
     private static final List<Class<? extends CombatRenderer>> COMBAT_RENDERER_CLASSES = new ArrayList<>();
     private static final Logger LOG = Global.getLogger(RadarSettings.class);
     // Performance settings
-    private static boolean respectFogOfWar, useVBOS;
-    private static float timeBetweenUpdateFrames;
-    private static int verticesPerCircle;
+    private static boolean respectFogOfWar, useVBOS, useStreaming, useSharedBuffer,
+            detectLeaks, useInstancing;
+    private static float timeBetweenUpdateFrames, maxPointContactSize;
+    private static int verticesPerCircle, maxDrawQueueBytes;
     // Display settings
     private static float radarRenderRadius;
     // Radar range settings
@@ -99,6 +101,26 @@ public class RadarSettings
         useVBOS = GLContext.getCapabilities().OpenGL15 && settings.getBoolean("useVBOs");
         LOG.info("Using vertex buffer objects: " + useVBOS);
 
+        // Streaming needs both mapped buffer ranges and fences to be safe
+        final ContextCapabilities caps = GLContext.getCapabilities();
+        useStreaming = useVBOS && settings.optBoolean("useStreamingUploads", true)
+                && (caps.OpenGL30 || caps.GL_ARB_map_buffer_range)
+                && (caps.OpenGL32 || caps.GL_ARB_sync);
+        LOG.info("Using streaming buffer uploads: " + useStreaming);
+        useSharedBuffer = useVBOS && settings.optBoolean("useSharedVertexBuffer", false);
+        LOG.info("Using shared vertex buffer: " + useSharedBuffer);
+        detectLeaks = settings.optBoolean("detectDrawQueueLeaks", false);
+        // Instancing needs shaders, per-instance attributes and instanced draws
+        useInstancing = settings.optBoolean("useInstancedSprites", true) && (caps.OpenGL33
+                || (caps.OpenGL20 && caps.GL_ARB_instanced_arrays && caps.GL_ARB_draw_instanced));
+        LOG.info("Using instanced sprites: " + useInstancing);
+        maxDrawQueueBytes = (useVBOS ? Math.max(0, settings.optInt("maxDrawQueueBytes", 0)) : 0);
+        LOG.info("DrawQueue byte cap: " + (maxDrawQueueBytes > 0
+                ? maxDrawQueueBytes + " bytes" : "none"));
+        // Point sizes above this look like blocks rather than dots
+        maxPointContactSize = Math.max(0f, Math.min(16f,
+                (float) settings.optDouble("maxPointContactSize", 0.0)));
+
         // Radar options
         radarAlpha = (float) settings.getDouble("radarUIAlpha");
 
@@ -287,6 +309,103 @@ public class RadarSettings
         return useVBOS;
     }
 
+    /**
+     * Returns whether the radar will stream dynamic vertex data into a ring of
+     * buffer regions instead of reallocating the entire buffer each update.
+     * Requires {@link RadarSettings#usesVertexBufferObjects()} as well as
+     * support for mapped buffer ranges and sync objects.
+     * <p>
+     * @return {@code true} if streaming uploads are enabled and the user's
+     *         card supports them, {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public static boolean usesStreamingUploads()
+    {
+        return useStreaming;
+    }
+
+    /**
+     * Returns whether all DrawQueues will sub-allocate their vertex data from
+     * a single shared buffer object instead of each creating their own. Off
+     * by default. If enabled, this takes priority over
+     * {@link RadarSettings#usesStreamingUploads()}, and DrawQueues always
+     * upload their full contents when changed. Requires
+     * {@link RadarSettings#usesVertexBufferObjects()}.
+     * <p>
+     * @return {@code true} if the shared vertex buffer is enabled and VBOs
+     *         are supported, {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public static boolean usesSharedVertexBuffer()
+    {
+        return useSharedBuffer;
+    }
+
+    /**
+     * Returns whether sprites should be drawn by uploading one small record
+     * per sprite and expanding it into a quad on the graphics card, instead
+     * of expanding every sprite into four vertices on the CPU. Requires
+     * OpenGL 3.3, or OpenGL 2.0 with instanced arrays and instanced drawing.
+     * <p>
+     * @return {@code true} if instanced sprites are enabled and supported,
+     *         {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public static boolean usesInstancedSprites()
+    {
+        return useInstancing;
+    }
+
+    /**
+     * Returns whether DrawQueues should remember where they were created, so
+     * any that are garbage collected without being disposed can be reported
+     * in the log. Only intended for debugging, as it makes creating
+     * DrawQueues more expensive.
+     * <p>
+     * @return {@code true} if DrawQueue leak detection is enabled,
+     *         {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public static boolean isDetectingDrawQueueLeaks()
+    {
+        return detectLeaks;
+    }
+
+    /**
+     * Returns the default cap on how much native memory each DrawQueue may
+     * use. Once a capped DrawQueue is full, its finished shapes are sent to
+     * the graphics card and the memory is reused instead of growing. Requires
+     * {@link RadarSettings#usesVertexBufferObjects()}.
+     * <p>
+     * @return The default byte cap for new DrawQueues, or 0 if they may grow
+     *         without limit.
+     * <p>
+     * @since 3.1
+     */
+    public static int getMaxDrawQueueBytes()
+    {
+        return maxDrawQueueBytes;
+    }
+
+    /**
+     * Returns how small a radar contact must be before it's drawn as a single
+     * point instead of a textured sprite. Used as the default for
+     * {@link org.lazywizard.radar.util.SpriteBatch#setMaxPointSize(float)}.
+     * <p>
+     * @return The size in pixels below which contacts are drawn as points,
+     *         or 0 if they should always be drawn as sprites.
+     * <p>
+     * @since 3.1
+     */
+    public static float getMaxPointContactSize()
+    {
+        return maxPointContactSize;
+    }
+
     /**
      * Returns how many vertices the radar should use when creating circles.
      * <p>
@@ -16,7 +16,12 @@ import org.lazywizard.lazylib.opengl.DrawUtils;
 import org.lazywizard.radar.CommonRadar;
 import org.lazywizard.radar.RadarSettings;
 import org.lazywizard.radar.renderers.CombatRenderer;
+import org.lazywizard.radar.renderers.SpriteOnlyRenderer;
 import org.lazywizard.radar.util.DrawQueue;
+import org.lazywizard.radar.util.IconCache;
+import org.lazywizard.radar.util.SpriteBatchManager;
+import org.lazywizard.radar.util.TextureAtlas;
+import org.lazywizard.radar.util.VertexBatch;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Vector2f;
@@ -26,6 +31,7 @@ public class CombatRadarPlugin extends BaseEveryFrameCombatPlugin
 {
     private final List<CombatRenderer> renderers = new ArrayList<>();
     private CombatRadarInfo radarInfo;
+    private SpriteBatchManager spriteBatches;
     private float timeSinceLastUpdateFrame = 9999f;
     private Vector2f renderCenter;
     private float renderRadius, sightRadius, radarScaling, currentZoom, intendedZoom;
@@ -55,10 +61,17 @@ public class CombatRadarPlugin extends BaseEveryFrameCombatPlugin
                     renderRadius * 1.2f);
             setZoomLevel(RadarSettings.getNumZoomLevels());
             currentZoom = intendedZoom;
+            advanceZoom(0f); // So renderers see the real scale during init()
 
+            // Opening a new scope disposes anything left over from the last battle
+            DrawQueue.openScope();
             DrawQueue.releaseDeadQueues();
+            TextureAtlas.disposeAll();
+            IconCache.disposeAll();
+            VertexBatch.releaseAllBuffers();
             renderers.clear(); // Needed due to a .6.2a bug
             radarInfo = new CombatRadarInfo();
+            spriteBatches = new SpriteBatchManager(radarInfo);
             for (Class<? extends CombatRenderer> rendererClass
                     : RadarSettings.getCombatRendererClasses())
             {
@@ -178,8 +191,16 @@ public class CombatRadarPlugin extends BaseEveryFrameCombatPlugin
         // Draw the radar elements individually
         for (CombatRenderer renderer : renderers)
         {
+            // Queued sprites are drawn before any renderer that may draw
+            // something that must appear on top of them
+            if (!(renderer instanceof SpriteOnlyRenderer))
+            {
+                spriteBatches.flush();
+            }
+
             renderer.render(player, amount, isUpdateFrame);
         }
+        spriteBatches.flush();
 
         // Finalize drawing
         glDisable(GL_BLEND);
@@ -194,8 +215,8 @@ public class CombatRadarPlugin extends BaseEveryFrameCombatPlugin
     {
         // Don't display over menus
         CombatEngineAPI engine = Global.getCombatEngine();
-        if (engine == null || player == null || !engine.isEntityInPlay(player)
-                || !engine.isUIShowingHUD())
+        if (!initialized || engine == null || player == null
+                || !engine.isEntityInPlay(player) || !engine.isUIShowingHUD())
         {
             return;
         }
@@ -214,6 +235,22 @@ public class CombatRadarPlugin extends BaseEveryFrameCombatPlugin
     {
         final CombatEngineAPI engine = Global.getCombatEngine();
 
+        // Release this battle's graphics memory as soon as it's over
+        if (engine.isCombatOver())
+        {
+            if (initialized)
+            {
+                renderers.clear();
+                DrawQueue.closeScope();
+                TextureAtlas.disposeAll();
+                IconCache.disposeAll();
+                VertexBatch.releaseAllBuffers();
+                initialized = false;
+            }
+
+            return;
+        }
+
         // This also acts as a main menu check
         player = engine.getPlayerShip();
         if (player == null || !engine.isEntityInPlay(player))
@@ -257,6 +294,12 @@ public class CombatRadarPlugin extends BaseEveryFrameCombatPlugin
             glDisable(GL_STENCIL_TEST);
         }
 
+        @Override
+        public SpriteBatchManager getSpriteBatchManager()
+        {
+            return spriteBatches;
+        }
+
         @Override
         public Vector2f getRenderCenter()
         {
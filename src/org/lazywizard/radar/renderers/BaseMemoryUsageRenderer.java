@@ -43,17 +43,17 @@ public abstract class BaseMemoryUsageRenderer
 
         memory = ManagementFactory.getMemoryMXBean();
         drawQueue = new DrawQueue(24);
+        drawQueue.setFlatColors(true);
     }
 
-    private static float[] createRect(float llx, float lly, float urx, float ury)
+    private void addRect(float llx, float lly, float urx, float ury)
     {
-        return new float[]
-        {
-            llx, lly,
-            urx, lly,
-            urx, ury,
-            llx, ury
-        };
+        drawQueue.reserveVertices(4);
+        drawQueue.put(llx, lly)
+                .put(urx, lly)
+                .put(urx, ury)
+                .put(llx, ury);
+        drawQueue.finishShape(GL_QUADS);
     }
 
     private void createBar(MemoryUsage memory)
@@ -64,22 +64,20 @@ public abstract class BaseMemoryUsageRenderer
         {
             final float usedHeight = barHeight * (float) (memory.getUsed() / (double) memory.getCommitted());
             drawQueue.setNextColor(Color.WHITE, radar.getRadarAlpha());
-            drawQueue.addVertices(createRect(barX, barY, barX + barWidth, barY + usedHeight));
+            addRect(barX, barY, barX + barWidth, barY + usedHeight);
             drawQueue.setNextColor(Color.DARK_GRAY, radar.getRadarAlpha());
-            drawQueue.addVertices(createRect(barX, barY + usedHeight, barX + barWidth, barY + barHeight));
-            drawQueue.finishShape(GL_QUADS);
+            addRect(barX, barY + usedHeight, barX + barWidth, barY + barHeight);
         }
         else
         {
             final float usedHeight = barHeight * (float) (memory.getUsed() / maxMemory),
                     commitHeight = barHeight * (float) (memory.getCommitted() / maxMemory);
             drawQueue.setNextColor(Color.WHITE, radar.getRadarAlpha());
-            drawQueue.addVertices(createRect(barX, barY, barX + barWidth, barY + usedHeight));
+            addRect(barX, barY, barX + barWidth, barY + usedHeight);
             drawQueue.setNextColor(Color.GRAY, radar.getRadarAlpha());
-            drawQueue.addVertices(createRect(barX, barY + usedHeight, barX + barWidth, barY + commitHeight));
+            addRect(barX, barY + usedHeight, barX + barWidth, barY + commitHeight);
             drawQueue.setNextColor(Color.DARK_GRAY, radar.getRadarAlpha());
-            drawQueue.addVertices(createRect(barX, barY + commitHeight, barX + barWidth, barY + barHeight));
-            drawQueue.finishShape(GL_QUADS);
+            addRect(barX, barY + commitHeight, barX + barWidth, barY + barHeight);
         }
     }
 
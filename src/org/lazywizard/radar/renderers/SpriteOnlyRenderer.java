@@ -0,0 +1,22 @@
+package org.lazywizard.radar.renderers;
+
+import org.lazywizard.radar.util.SpriteBatchManager;
+
+/**
+ * An optional marker interface for renderers that only add sprites to the
+ * radar's {@link SpriteBatchManager} instead of drawing directly.
+ * <p>
+ * Before calling a renderer, the radar normally flushes every sprite queued
+ * so far, so the renderer's own drawing appears on top of them. It skips that
+ * flush for renderers with this interface, so their sprites can be drawn
+ * together with sprites queued by earlier renderers. A renderer with this
+ * interface that does draw something directly must call
+ * {@link SpriteBatchManager#flush()} first. This also applies to
+ * subclasses of such renderers.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public interface SpriteOnlyRenderer
+{
+}
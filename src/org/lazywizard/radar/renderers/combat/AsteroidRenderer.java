@@ -10,16 +10,22 @@ import org.json.JSONObject;
 import org.lazywizard.lazylib.JSONUtils;
 import org.lazywizard.radar.CommonRadar;
 import org.lazywizard.radar.renderers.CombatRenderer;
+import org.lazywizard.radar.renderers.SpriteOnlyRenderer;
+import org.lazywizard.radar.util.RadarIcons;
 import org.lazywizard.radar.util.SpriteBatch;
+import org.lazywizard.radar.util.TextureAtlas;
 import static org.lwjgl.opengl.GL11.*;
 
-public class AsteroidRenderer implements CombatRenderer
+public class AsteroidRenderer implements CombatRenderer, SpriteOnlyRenderer
 {
+    // Matches this renderer's default render order
+    private static final int SPRITE_LAYER = 60;
     private static boolean SHOW_ASTEROIDS;
     private static int MAX_ASTEROIDS_SHOWN;
     private static String ASTEROID_ICON;
     private static Color ASTEROID_COLOR;
     private SpriteBatch toDraw;
+    private TextureAtlas.Region asteroidIcon;
     private CommonRadar<CombatEntityAPI> radar;
 
     @Override
@@ -43,7 +49,8 @@ public class AsteroidRenderer implements CombatRenderer
         }
 
         this.radar = radar;
-        toDraw = new SpriteBatch(Global.getSettings().getSprite("radar", ASTEROID_ICON));
+        asteroidIcon = RadarIcons.getIcon(ASTEROID_ICON);
+        toDraw = new SpriteBatch(asteroidIcon.getTextureId(), GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
     }
 
     @Override
@@ -61,35 +68,23 @@ public class AsteroidRenderer implements CombatRenderer
                     Global.getCombatEngine().getAsteroids(), MAX_ASTEROIDS_SHOWN);
             if (!asteroids.isEmpty())
             {
+                // Every asteroid shares the same color, so only pack it once
+                final int color = SpriteBatch.packColor(ASTEROID_COLOR,
+                        radar.getContactAlpha());
                 for (CombatEntityAPI asteroid : asteroids)
                 {
                     final float[] loc = radar.getRawPointOnRadar(asteroid.getLocation());
                     float size = Math.max(40f, asteroid.getCollisionRadius() * 2f)
                             * radar.getCurrentPixelsPerSU();
                     size *= 1.5f; // Scale upwards for better visibility
-                    toDraw.add(loc[0], loc[1], 0f, size, ASTEROID_COLOR,
-                            radar.getContactAlpha());
+                    toDraw.add(loc[0], loc[1], 0f, size, asteroidIcon, color);
                 }
             }
 
             toDraw.finish();
         }
 
-        // Don't draw if there's nothing to render!
-        if (toDraw.isEmpty())
-        {
-            return;
-        }
-
-        // Draw all asteroids
-        radar.enableStencilTest();
-
-        glEnable(GL_TEXTURE_2D);
-        glEnable(GL_BLEND);
-        toDraw.draw();
-        glDisable(GL_BLEND);
-        glDisable(GL_TEXTURE_2D);
-
-        radar.disableStencilTest();
+        // Draw all asteroids alongside other renderers' sprites
+        radar.getSpriteBatchManager().add(toDraw, SPRITE_LAYER);
     }
 }
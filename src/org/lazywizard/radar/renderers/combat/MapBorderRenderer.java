@@ -44,6 +44,8 @@ public class MapBorderRenderer implements CombatRenderer
 
         this.radar = radar;
         drawQueue = new DrawQueue(28);
+        drawQueue.setFlatColors(true);
+        drawQueue.setTrackChanges(true);
 
         // Calculate where the map borders are in raw engine coordinates
         CombatEngineAPI engine = Global.getCombatEngine();
@@ -71,55 +73,51 @@ public class MapBorderRenderer implements CombatRenderer
 
             // Retreat areas
             drawQueue.setNextColor(RETREAT_AREA_COLOR, radar.getRadarAlpha());
-            drawQueue.addVertices(new float[]
-            {
-                // Player retreat
-                ll[0], ll[1],
-                ll[0], ll[1] + retreatDistance,
-                ur[0], ll[1] + retreatDistance,
-                ur[0], ll[1],
-                // Enemy retreat
-                ll[0], ur[1],
-                ll[0], ur[1] - retreatDistance,
-                ur[0], ur[1] - retreatDistance,
-                ur[0], ur[1]
-            });
+            drawQueue.reserveVertices(8);
+            // Player retreat
+            drawQueue.put(ll[0], ll[1])
+                    .put(ll[0], ll[1] + retreatDistance)
+                    .put(ur[0], ll[1] + retreatDistance)
+                    .put(ur[0], ll[1]);
+            // Enemy retreat
+            drawQueue.put(ll[0], ur[1])
+                    .put(ll[0], ur[1] - retreatDistance)
+                    .put(ur[0], ur[1] - retreatDistance)
+                    .put(ur[0], ur[1]);
+            drawQueue.finishShape(GL_QUADS);
+
             // Out of bounds
             drawQueue.setNextColor(Color.GRAY, radar.getRadarAlpha() * 0.3f);
-            drawQueue.addVertices(new float[]
-            {
-                // Top
-                ll[0] - outerDistance, ur[1],
-                ll[0] - outerDistance, ur[1] + outerDistance,
-                ur[0] + outerDistance, ur[1] + outerDistance,
-                ur[0] + outerDistance, ur[1],
-                // Bottom
-                ll[0] - outerDistance, ll[1],
-                ll[0] - outerDistance, ll[1] - outerDistance,
-                ur[0] + outerDistance, ll[1] - outerDistance,
-                ur[0] + outerDistance, ll[1],
-                // Right
-                ur[0], ur[1],
-                ur[0] + outerDistance, ur[1],
-                ur[0] + outerDistance, ll[1],
-                ur[0], ll[1],
-                // Left
-                ll[0], ll[1],
-                ll[0] - outerDistance, ll[1],
-                ll[0] - outerDistance, ur[1],
-                ll[0], ur[1]
-            });
+            drawQueue.reserveVertices(16);
+            // Top
+            drawQueue.put(ll[0] - outerDistance, ur[1])
+                    .put(ll[0] - outerDistance, ur[1] + outerDistance)
+                    .put(ur[0] + outerDistance, ur[1] + outerDistance)
+                    .put(ur[0] + outerDistance, ur[1]);
+            // Bottom
+            drawQueue.put(ll[0] - outerDistance, ll[1])
+                    .put(ll[0] - outerDistance, ll[1] - outerDistance)
+                    .put(ur[0] + outerDistance, ll[1] - outerDistance)
+                    .put(ur[0] + outerDistance, ll[1]);
+            // Right
+            drawQueue.put(ur[0], ur[1])
+                    .put(ur[0] + outerDistance, ur[1])
+                    .put(ur[0] + outerDistance, ll[1])
+                    .put(ur[0], ll[1]);
+            // Left
+            drawQueue.put(ll[0], ll[1])
+                    .put(ll[0] - outerDistance, ll[1])
+                    .put(ll[0] - outerDistance, ur[1])
+                    .put(ll[0], ur[1]);
             drawQueue.finishShape(GL_QUADS);
 
             // Gravity barriers
             drawQueue.setNextColor(GRAVITY_BARRIER_COLOR, radar.getRadarAlpha());
-            drawQueue.addVertices(new float[]
-            {
-                ll[0], ll[1],
-                ll[0], ur[1],
-                ur[0], ur[1],
-                ur[0], ll[1]
-            });
+            drawQueue.reserveVertices(4);
+            drawQueue.put(ll[0], ll[1])
+                    .put(ll[0], ur[1])
+                    .put(ur[0], ur[1])
+                    .put(ur[0], ll[1]);
             drawQueue.finishShape(GL_LINE_LOOP);
             drawQueue.finish();
         }
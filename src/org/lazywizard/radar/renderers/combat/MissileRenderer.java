@@ -2,14 +2,17 @@ package org.lazywizard.radar.renderers.combat;
 
 import com.fs.starfarer.api.Global;
 import com.fs.starfarer.api.combat.*;
-import com.fs.starfarer.api.graphics.SpriteAPI;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.lazywizard.lazylib.JSONUtils;
 import org.lazywizard.radar.CommonRadar;
 import org.lazywizard.radar.renderers.CombatRenderer;
+import org.lazywizard.radar.renderers.SpriteOnlyRenderer;
+import org.lazywizard.radar.util.RadarIcons;
 import org.lazywizard.radar.util.SpriteBatch;
+import org.lazywizard.radar.util.SpriteBatchManager;
+import org.lazywizard.radar.util.TextureAtlas;
 import org.lwjgl.util.vector.Vector2f;
 
 import java.awt.*;
@@ -20,8 +23,10 @@ import java.util.Set;
 
 import static org.lwjgl.opengl.GL11.*;
 
-public class MissileRenderer implements CombatRenderer
+public class MissileRenderer implements CombatRenderer, SpriteOnlyRenderer
 {
+    // Matches this renderer's default render order
+    private static final int SPRITE_LAYER = 70;
     private static final String EXCLUDED_MISSILE_LOCKS_PATH
             = "data/config/radar/excluded_missile_locks.csv";
     private static boolean SHOW_MISSILES, SHOW_MISSILE_LOCK_ICON;
@@ -30,11 +35,12 @@ public class MissileRenderer implements CombatRenderer
     private static Color FRIENDLY_COLOR, ENEMY_COLOR, MISSILE_LOCKED_COLOR;
     private static String MISSILE_ICON, FLARE_ICON, MISSILE_LOCK_ICON;
     private static float MISSILE_SIZE_MOD, FLARE_SIZE_MOD;
-    private SpriteBatch missileToDraw, flareToDraw;
-    private SpriteAPI lockIcon;
+    // Missiles and flares share a batch unless the atlas put them on different pages
+    private SpriteBatch toDraw, flaresToDraw, lockToDraw;
+    private TextureAtlas.Region missileIcon, flareIcon, lockIcon;
     private Vector2f lockIconLocation;
     private boolean playerLock = false;
-    private float missileSize, flareSize, highestThreatAlpha = 0f;
+    private float missileSize, flareSize, lockIconSize, highestThreatAlpha = 0f;
     private CommonRadar<CombatEntityAPI> radar;
 
     private static Color optColor(JSONArray array, Color defaultColor) throws JSONException
@@ -109,18 +115,23 @@ public class MissileRenderer implements CombatRenderer
 
         this.radar = radar;
 
-        missileToDraw = new SpriteBatch(Global.getSettings().getSprite("radar", MISSILE_ICON));
+        missileIcon = RadarIcons.getIcon(MISSILE_ICON);
         missileSize = radar.getRenderRadius() * MISSILE_SIZE_MOD;
 
-        flareToDraw = new SpriteBatch(Global.getSettings().getSprite("radar", FLARE_ICON));
+        flareIcon = RadarIcons.getIcon(FLARE_ICON);
         flareSize = radar.getRenderRadius() * FLARE_SIZE_MOD;
 
+        toDraw = new SpriteBatch(missileIcon.getTextureId(), GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        flaresToDraw = (flareIcon.getTextureId() == missileIcon.getTextureId() ? toDraw
+                : new SpriteBatch(flareIcon.getTextureId(), GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA));
+
         if (SHOW_MISSILE_LOCK_ICON)
         {
             final Vector2f radarCenter = radar.getRenderCenter();
             final float radarRadius = radar.getRenderRadius();
-            lockIcon = Global.getSettings().getSprite("radar", MISSILE_LOCK_ICON);
-            lockIcon.setColor(MISSILE_LOCKED_COLOR);
+            lockIcon = RadarIcons.getIcon(MISSILE_LOCK_ICON);
+            lockToDraw = new SpriteBatch(lockIcon.getTextureId(), GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+            lockIconSize = RadarIcons.getSprite(MISSILE_LOCK_ICON).getHeight();
             lockIconLocation = new Vector2f(radarCenter.x - (radarRadius * 0.9f),
                     radarCenter.y + (radarRadius * 0.9f));
         }
@@ -147,8 +158,8 @@ public class MissileRenderer implements CombatRenderer
         {
             playerLock = false;
             highestThreatAlpha = 0f;
-            missileToDraw.clear();
-            flareToDraw.clear();
+            toDraw.clear();
+            flaresToDraw.clear();
             final List<MissileAPI> missiles = radar.filterVisible(
                     Global.getCombatEngine().getMissiles(), MAX_MISSILES_SHOWN);
             for (MissileAPI missile : missiles)
@@ -191,44 +202,55 @@ public class MissileRenderer implements CombatRenderer
 
                 if (missile.isFlare())
                 {
-                    flareToDraw.add(radarLoc[0], radarLoc[1], missile.getFacing(),
-                            flareSize, color, alphaMod);
+                    flaresToDraw.add(radarLoc[0], radarLoc[1], missile.getFacing(),
+                            flareSize, flareIcon, color, alphaMod);
                 }
                 else
                 {
-                    missileToDraw.add(radarLoc[0], radarLoc[1], missile.getFacing(),
-                            missileSize, color, alphaMod);
+                    toDraw.add(radarLoc[0], radarLoc[1], missile.getFacing(),
+                            missileSize, missileIcon, color, alphaMod);
                 }
             }
 
-            missileToDraw.finish();
-            flareToDraw.finish();
+            toDraw.finish();
+            if (flaresToDraw != toDraw)
+            {
+                flaresToDraw.finish();
+            }
+
+            if (SHOW_MISSILE_LOCK_ICON)
+            {
+                lockToDraw.clear();
+                if (playerLock)
+                {
+                    lockToDraw.add(lockIconLocation.x, lockIconLocation.y, 90f, lockIconSize,
+                            lockIcon, MISSILE_LOCKED_COLOR,
+                            radar.getRadarAlpha() * highestThreatAlpha);
+                }
+
+                lockToDraw.finish();
+            }
         }
 
-        // Don't draw if there's nothing to render!
-        if (missileToDraw.isEmpty() && flareToDraw.isEmpty())
+        // Draw all missiles and flares alongside other renderers' sprites
+        final SpriteBatchManager spriteBatches = radar.getSpriteBatchManager();
+        spriteBatches.add(toDraw, SPRITE_LAYER);
+        if (flaresToDraw != toDraw)
         {
-            return;
+            spriteBatches.add(flaresToDraw, SPRITE_LAYER);
         }
 
-        // Draw all missiles and flares
-        radar.enableStencilTest();
-
-        glEnable(GL_TEXTURE_2D);
-        glEnable(GL_BLEND);
-        missileToDraw.draw();
-        flareToDraw.draw();
-        glDisable(GL_BLEND);
-        glDisable(GL_TEXTURE_2D);
-
-        radar.disableStencilTest();
-
+        // The lock warning sits outside the radar circle, so it's drawn
+        // directly without the stencil. As a SpriteOnlyRenderer, the queued
+        // sprites must be flushed before drawing anything else
         if (SHOW_MISSILE_LOCK_ICON && playerLock)
         {
-            lockIcon.setAlphaMult(radar.getRadarAlpha() * highestThreatAlpha);
-            lockIcon.renderAtCenter(lockIconLocation.x, lockIconLocation.y);
+            spriteBatches.flush();
+            glEnable(GL_TEXTURE_2D);
+            glEnable(GL_BLEND);
+            lockToDraw.draw();
+            glDisable(GL_BLEND);
+            glDisable(GL_TEXTURE_2D);
         }
-
-        glDisable(GL_TEXTURE_2D);
     }
 }
@@ -11,16 +11,22 @@ import org.json.JSONObject;
 import org.lazywizard.lazylib.JSONUtils;
 import org.lazywizard.radar.CommonRadar;
 import org.lazywizard.radar.renderers.CombatRenderer;
+import org.lazywizard.radar.renderers.SpriteOnlyRenderer;
+import org.lazywizard.radar.util.RadarIcons;
 import org.lazywizard.radar.util.SpriteBatch;
+import org.lazywizard.radar.util.TextureAtlas;
 import static org.lwjgl.opengl.GL11.*;
 
-public class NebulaRenderer implements CombatRenderer
+public class NebulaRenderer implements CombatRenderer, SpriteOnlyRenderer
 {
+    // Matches this renderer's default render order
+    private static final int SPRITE_LAYER = 35;
     private static boolean SHOW_NEBULAE;
     private static int MAX_NEBULAE_SHOWN;
     private static String NEBULA_ICON;
     private static Color NEBULA_COLOR;
     private SpriteBatch toDraw;
+    private TextureAtlas.Region nebulaIcon;
     private CommonRadar<CombatEntityAPI> radar;
 
     @Override
@@ -44,7 +50,8 @@ public class NebulaRenderer implements CombatRenderer
         }
 
         this.radar = radar;
-        toDraw = new SpriteBatch(Global.getSettings().getSprite("radar", NEBULA_ICON));
+        nebulaIcon = RadarIcons.getIcon(NEBULA_ICON);
+        toDraw = new SpriteBatch(nebulaIcon.getTextureId(), GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
     }
 
     // Hides tile pattern by rotating sprite by a predictable but non-uniform angle
@@ -98,7 +105,7 @@ public class NebulaRenderer implements CombatRenderer
                     final float[] coord = radar.getRawPointOnRadar(rawX, rawY);
                     final float angle = getAngle(x, y);
                     toDraw.add(coord[0], coord[1], angle, tileRenderSize
-                            * radar.getCurrentPixelsPerSU(), NEBULA_COLOR,
+                            * radar.getCurrentPixelsPerSU(), nebulaIcon, NEBULA_COLOR,
                             radar.getContactAlpha() * (1f - Math.abs(angle * .001f)));
                 }
             }
@@ -120,21 +127,7 @@ public class NebulaRenderer implements CombatRenderer
             toDraw.finish();
         }
 
-        // Don't draw if there's nothing to render!
-        if (toDraw.isEmpty())
-        {
-            return;
-        }
-
-        // Draw all nebulae
-        radar.enableStencilTest();
-
-        glEnable(GL_TEXTURE_2D);
-        glEnable(GL_BLEND);
-        toDraw.draw();
-        glDisable(GL_BLEND);
-        glDisable(GL_TEXTURE_2D);
-
-        radar.disableStencilTest();
+        // Draw all nebulae alongside other renderers' sprites
+        radar.getSpriteBatchManager().add(toDraw, SPRITE_LAYER);
     }
 }
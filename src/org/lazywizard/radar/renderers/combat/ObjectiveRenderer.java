@@ -12,6 +12,7 @@ import org.lazywizard.radar.CommonRadar;
 import org.lazywizard.radar.renderers.CombatRenderer;
 import org.lazywizard.radar.util.DrawQueue;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
 
 public class ObjectiveRenderer implements CombatRenderer
 {
@@ -39,7 +40,39 @@ public class ObjectiveRenderer implements CombatRenderer
         }
 
         this.radar = radar;
-        drawQueue = new DrawQueue(24);
+        drawQueue = new DrawQueue(24, GL_DYNAMIC_DRAW, true);
+        drawQueue.setConvertToLists(true);
+        drawQueue.setFlatColors(true);
+        drawQueue.setTrackChanges(true);
+        drawQueue.setName("ObjectiveRenderer");
+    }
+
+    private Color getColor(BattleObjectiveAPI objective, ShipAPI player)
+    {
+        // Owned by player
+        if (objective.getOwner() == player.getOwner())
+        {
+            return radar.getFriendlyContactColor();
+        }
+        // Owned by opposition
+        else if (objective.getOwner() + player.getOwner() == 1)
+        {
+            return radar.getEnemyContactColor();
+        }
+        // Not owned yet
+        else
+        {
+            return radar.getNeutralContactColor();
+        }
+    }
+
+    private void addDiamond(float x, float y, float size)
+    {
+        drawQueue.reserveVertices(4);
+        drawQueue.put(x, y + size)
+                .put(x + size, y)
+                .put(x, y - size)
+                .put(x - size, y);
     }
 
     @Override
@@ -57,39 +90,23 @@ public class ObjectiveRenderer implements CombatRenderer
                     Global.getCombatEngine().getObjectives(), MAX_OBJECTIVES_SHOWN);
             if (!objectives.isEmpty())
             {
+                // Outlines and fills are added in separate passes so each
+                // run of same-colored objectives is drawn with a single call
+                final float size = 250f * radar.getCurrentPixelsPerSU();
                 for (BattleObjectiveAPI objective : objectives)
                 {
-                    final Color color;
-                    // Owned by player
-                    if (objective.getOwner() == player.getOwner())
-                    {
-                        color = radar.getFriendlyContactColor();
-                    }
-                    // Owned by opposition
-                    else if (objective.getOwner() + player.getOwner() == 1)
-                    {
-                        color = radar.getEnemyContactColor();
-                    }
-                    // Not owned yet
-                    else
-                    {
-                        color = radar.getNeutralContactColor();
-                    }
-
                     final float[] radarLoc = radar.getRawPointOnRadar(objective.getLocation());
-                    final float size = 250f * radar.getCurrentPixelsPerSU();
-                    final float[] vertices = new float[]
-                    {
-                        radarLoc[0], radarLoc[1] + size,
-                        radarLoc[0] + size, radarLoc[1],
-                        radarLoc[0], radarLoc[1] - size,
-                        radarLoc[0] - size, radarLoc[1]
-                    };
-                    drawQueue.setNextColor(color, radar.getContactAlpha());
-                    drawQueue.addVertices(vertices);
+                    drawQueue.setNextColor(getColor(objective, player), radar.getContactAlpha());
+                    addDiamond(radarLoc[0], radarLoc[1], size);
                     drawQueue.finishShape(GL_LINE_LOOP);
-                    drawQueue.setNextColor(color, radar.getContactAlpha() * 0.15f);
-                    drawQueue.addVertices(vertices);
+                }
+
+                for (BattleObjectiveAPI objective : objectives)
+                {
+                    final float[] radarLoc = radar.getRawPointOnRadar(objective.getLocation());
+                    drawQueue.setNextColor(getColor(objective, player),
+                            radar.getContactAlpha() * 0.15f);
+                    addDiamond(radarLoc[0], radarLoc[1], size);
                     drawQueue.finishShape(GL_QUADS);
                 }
             }
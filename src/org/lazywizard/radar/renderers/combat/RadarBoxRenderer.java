@@ -50,7 +50,10 @@ public class RadarBoxRenderer implements CombatRenderer
         this.radar = radar;
         firstFrame = true;
         boxDrawQueue = new DrawQueue(500, GL_STATIC_DRAW);
+        boxDrawQueue.setIndexedDrawing(true);
+        boxDrawQueue.setStaticCapture(true);
         zoomDrawQueue = new DrawQueue(8);
+        zoomDrawQueue.setTrackChanges(true);
     }
 
     @Override
@@ -73,28 +76,28 @@ public class RadarBoxRenderer implements CombatRenderer
 
             // Slight darkening of radar background
             boxDrawQueue.setNextColor(RADAR_BG_COLOR, RADAR_OPACITY);
-            boxDrawQueue.addVertices(ShapeUtils.createCircle(radarCenter.x,
-                    radarCenter.y, radarRadius, RadarSettings.getVerticesPerCircle()));
+            ShapeUtils.addCircle(boxDrawQueue, radarCenter.x,
+                    radarCenter.y, radarRadius, RadarSettings.getVerticesPerCircle());
             boxDrawQueue.finishShape(GL_TRIANGLE_FAN);
 
             final Color color = (player.isAlive() ? RADAR_FG_COLOR : RADAR_FG_DEAD_COLOR);
 
             // Outer circle
             boxDrawQueue.setNextColor(color, radarEdgeFade);
-            boxDrawQueue.addVertices(ShapeUtils.createCircle(radarCenter.x,
-                    radarCenter.y, radarRadius, RadarSettings.getVerticesPerCircle()));
+            ShapeUtils.addCircle(boxDrawQueue, radarCenter.x,
+                    radarCenter.y, radarRadius, RadarSettings.getVerticesPerCircle());
             boxDrawQueue.finishShape(GL_LINE_LOOP);
 
             // Middle circle
             boxDrawQueue.setNextColor(color, radarMidFade);
-            boxDrawQueue.addVertices(ShapeUtils.createCircle(radarCenter.x,
-                    radarCenter.y, radarRadius * .66f, RadarSettings.getVerticesPerCircle()));
+            ShapeUtils.addCircle(boxDrawQueue, radarCenter.x,
+                    radarCenter.y, radarRadius * .66f, RadarSettings.getVerticesPerCircle());
             boxDrawQueue.finishShape(GL_LINE_LOOP);
 
             // Inner circle
             boxDrawQueue.setNextColor(color, radarCenterFade);
-            boxDrawQueue.addVertices(ShapeUtils.createCircle(radarCenter.x,
-                    radarCenter.y, radarRadius * .33f, RadarSettings.getVerticesPerCircle()));
+            ShapeUtils.addCircle(boxDrawQueue, radarCenter.x,
+                    radarCenter.y, radarRadius * .33f, RadarSettings.getVerticesPerCircle());
             boxDrawQueue.finishShape(GL_LINE_LOOP);
 
             // Vertical line
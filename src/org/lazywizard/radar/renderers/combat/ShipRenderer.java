@@ -1,10 +1,17 @@
 package org.lazywizard.radar.renderers.combat;
 
 import com.fs.starfarer.api.Global;
+import com.fs.starfarer.api.combat.CombatEngineAPI;
 import com.fs.starfarer.api.combat.CombatEntityAPI;
+import com.fs.starfarer.api.combat.CombatFleetManagerAPI;
 import com.fs.starfarer.api.combat.ShieldAPI;
 import com.fs.starfarer.api.combat.ShipAPI;
+import com.fs.starfarer.api.combat.ShipHullSpecAPI;
+import com.fs.starfarer.api.combat.ShipVariantAPI;
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
 import com.fs.starfarer.api.graphics.SpriteAPI;
+import com.fs.starfarer.api.loading.FighterWingSpecAPI;
+import com.fs.starfarer.api.mission.FleetSide;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -12,34 +19,57 @@ import org.lazywizard.lazylib.FastTrig;
 import org.lazywizard.lazylib.JSONUtils;
 import org.lazywizard.radar.CommonRadar;
 import org.lazywizard.radar.renderers.CombatRenderer;
+import org.lazywizard.radar.util.DoubleBufferedDrawQueue;
 import org.lazywizard.radar.util.DrawQueue;
+import org.lazywizard.radar.util.IconCache;
+import org.lazywizard.radar.util.RadarIcons;
 import org.lazywizard.radar.util.SpriteBatch;
-import org.lwjgl.util.vector.Vector2f;
+import org.lazywizard.radar.util.SpriteBatchManager;
+import org.lazywizard.radar.util.TextureAtlas;
 
 import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL13.*;
-import static org.lwjgl.opengl.GL14.GL_GENERATE_MIPMAP;
-import static org.lwjgl.opengl.GL15.GL_SRC0_RGB;
 import static org.lwjgl.opengl.GL30.GL_INVALID_FRAMEBUFFER_OPERATION;
 
 public class ShipRenderer implements CombatRenderer
 {
     private static final Logger LOG = Global.getLogger(ShipRenderer.class);
+    // Only used to size the shield queue the first time, before any stats exist
+    private static final int TYPICAL_SHIELDED_SHIPS = 40;
+    // Size of each ship sprite atlas page, enough for 256 icons at the default icon size
+    private static final int ATLAS_PAGE_SIZE = 1024;
+    // Smallest cached icon, below this mipmaps take over
+    private static final int MIN_ICON_SIZE = 16;
+    // Matches this renderer's default render order
+    private static final int SPRITE_LAYER = 50;
     private static boolean SHOW_SHIPS, SHOW_SHIELDS, SHOW_TARGET_MARKER,
-            DRAW_SOLID_SHIELDS, SIMPLE_FIGHTERS, SIMPLE_SHIPS;
-    private static int MAX_SHIPS_SHOWN, MAX_SHIELD_SEGMENTS;
+            DRAW_SOLID_SHIELDS, SIMPLE_FIGHTERS, SIMPLE_SHIPS, USE_SPRITE_ATLAS;
+    private static int MAX_SHIPS_SHOWN, MAX_SHIELD_SEGMENTS, ATLAS_ICON_SIZE, MAX_ICON_SIZE,
+            MAX_SHIP_BATCHES;
     private static Color SHIELD_COLOR, MARKER_COLOR;
     private static String SIMPLE_ICON;
     private static float FIGHTER_SIZE_MOD, MIN_FIGHTER_SIZE,
             MIN_SHIP_SIZE, MIN_SHIP_ALPHA_MULT;
-    private Map<Integer, SpriteBatch> shipBatches;
-    private SpriteBatch simpleBatch;
-    private DrawQueue drawQueue;
+    // Ordered from least to most recently used, so idle batches can be evicted
+    private Map<Integer, ShipBatch> shipBatches;
+    // Only the batches used this update frame are finished and drawn
+    private final List<SpriteBatch> activeBatches = new ArrayList<>();
+    private int updateFrame = 0;
+    private TextureAtlas.Region simpleIcon;
+    private TextureAtlas atlas;
+    private IconCache icons;
+    // Shields and the target marker are built on the fill thread from a snapshot
+    private DoubleBufferedDrawQueue drawQueue;
+    private final ContactShapes contactShapes = new ContactShapes();
     private CommonRadar<CombatEntityAPI> radar;
 
     private static enum RenderMode
@@ -49,6 +79,144 @@ public class ShipRenderer implements CombatRenderer
         SIMPLE_ALL
     }
 
+    private static class ShipBatch
+    {
+        private final int textureId;
+        private final SpriteBatch sprites;
+        private int lastUsedFrame = -1;
+
+        private ShipBatch(int textureId)
+        {
+            this.textureId = textureId;
+            sprites = new SpriteBatch(textureId, GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        }
+    }
+
+    // Copy of everything needed to build shields and the target marker, so
+    // they can be built away from the combat engine on the fill thread. Only
+    // rewritten on update frames, after the previous fill has been drawn
+    private static final class ContactShapes implements DoubleBufferedDrawQueue.Filler
+    {
+        // Each shield is stored as x, y, radius, start angle and arc angle
+        private static final int SHIELD_STRIDE = 5;
+        private float[] shields = new float[16 * SHIELD_STRIDE];
+        private int[] shieldSegments = new int[16];
+        private int numShields = 0;
+        private float shieldAlpha, markerX, markerY, markerSize, markerAlpha;
+        private boolean hasMarker = false;
+
+        private void clear()
+        {
+            numShields = 0;
+            hasMarker = false;
+        }
+
+        private void setMarker(float x, float y, float size, float alpha)
+        {
+            markerX = x;
+            markerY = y;
+            markerSize = size;
+            markerAlpha = alpha;
+            hasMarker = true;
+        }
+
+        private void addShield(float x, float y, float radius, float startAngle,
+                float arcAngle, int numSegments)
+        {
+            if (numShields == shieldSegments.length)
+            {
+                shields = Arrays.copyOf(shields, numShields * 2 * SHIELD_STRIDE);
+                shieldSegments = Arrays.copyOf(shieldSegments, numShields * 2);
+            }
+
+            final int index = numShields * SHIELD_STRIDE;
+            shields[index] = x;
+            shields[index + 1] = y;
+            shields[index + 2] = radius;
+            shields[index + 3] = startAngle;
+            shields[index + 4] = arcAngle;
+            shieldSegments[numShields++] = numSegments;
+        }
+
+        @Override
+        public void fill(DrawQueue queue)
+        {
+            if (hasMarker)
+            {
+                addTargetMarker(queue);
+            }
+
+            if (numShields > 0)
+            {
+                queue.setNextColor(SHIELD_COLOR, shieldAlpha);
+                for (int x = 0; x < numShields; x++)
+                {
+                    addShield(queue, x * SHIELD_STRIDE, shieldSegments[x]);
+                }
+            }
+        }
+
+        private void addShield(DrawQueue queue, int index, int numSegments)
+        {
+            final float centerX = shields[index], centerY = shields[index + 1],
+                    size = shields[index + 2], startAngle = shields[index + 3],
+                    arcAngle = shields[index + 4];
+
+            // Precalculate the sine and cosine
+            // Instead of recalculating sin/cos for each line segment,
+            // this algorithm rotates the line around the center point
+            final float theta = arcAngle / numSegments;
+            final float cos = (float) FastTrig.cos(theta);
+            final float sin = (float) FastTrig.sin(theta);
+
+            // Start at angle startAngle
+            float x = (float) (size * FastTrig.cos(startAngle));
+            float y = (float) (size * FastTrig.sin(startAngle));
+            float tmp;
+
+            // Write vertices directly into the master vertex map
+            queue.reserveVertices(numSegments + (DRAW_SOLID_SHIELDS ? 2 : 1));
+            if (DRAW_SOLID_SHIELDS)
+            {
+                queue.put(centerX, centerY);
+            }
+            for (int i = 0; i < numSegments; i++)
+            {
+                // Output vertex
+                queue.put(x + centerX, y + centerY);
+
+                // Apply the rotation matrix
+                tmp = x;
+                x = (cos * x) - (sin * y);
+                y = (sin * tmp) + (cos * y);
+            }
+            queue.put(x + centerX, y + centerY);
+            queue.finishShape(DRAW_SOLID_SHIELDS ? GL_TRIANGLE_FAN : GL_LINE_STRIP);
+        }
+
+        private void addTargetMarker(DrawQueue queue)
+        {
+            final float x = markerX, y = markerY, size = markerSize;
+            final float margin = size * .5f;
+
+            queue.setNextColor(MARKER_COLOR, markerAlpha);
+            queue.reserveVertices(16);
+            // Upper left corner
+            queue.put(x - size, y + size).put(x - margin, y + size)
+                    .put(x - size, y + size).put(x - size, y + margin);
+            // Upper right corner
+            queue.put(x + size, y + size).put(x + margin, y + size)
+                    .put(x + size, y + size).put(x + size, y + margin);
+            // Lower left corner
+            queue.put(x - size, y - size).put(x - margin, y - size)
+                    .put(x - size, y - size).put(x - size, y - margin);
+            // Lower right corner
+            queue.put(x + size, y - size).put(x + margin, y - size)
+                    .put(x + size, y - size).put(x + size, y - margin);
+            queue.finishShape(GL_LINES);
+        }
+    }
+
     private static float minSize(ShipAPI ship)
     {
         return (ship.isFighter() ? MIN_FIGHTER_SIZE : MIN_SHIP_SIZE);
@@ -98,6 +266,10 @@ public class ShipRenderer implements CombatRenderer
         DRAW_SOLID_SHIELDS = settings.getBoolean("drawSolidShields");
         MAX_SHIELD_SEGMENTS = settings.getInt("maxShieldSegments");
         MIN_SHIP_ALPHA_MULT = (float) settings.getDouble("minShipAlphaMult");
+        USE_SPRITE_ATLAS = settings.optBoolean("useSpriteAtlas", true);
+        ATLAS_ICON_SIZE = settings.optInt("atlasIconSize", 64);
+        MAX_ICON_SIZE = settings.optInt("maxIconSize", 128);
+        MAX_SHIP_BATCHES = Math.max(1, settings.optInt("maxShipBatches", 64));
 
         final RenderMode mode = RenderMode.valueOf(settings.getString("renderMode"));
         SIMPLE_SHIPS = (mode == RenderMode.SIMPLE_ALL);
@@ -119,112 +291,157 @@ public class ShipRenderer implements CombatRenderer
 
         this.radar = radar;
 
-        int initialCapacity = SHOW_TARGET_MARKER ? 8 : 0;
+        int initialCapacity = SHOW_TARGET_MARKER ? 16 : 0;
         if (SHOW_SHIELDS)
         {
-            initialCapacity += MAX_SHIPS_SHOWN * 2
-                    * (MAX_SHIELD_SEGMENTS + (DRAW_SOLID_SHIELDS ? 4 : 2));
+            // Shields are converted to triangles/lines so they can be drawn at once
+            // This only covers a typical battle, the last battle's peak is used if larger
+            initialCapacity += Math.min(MAX_SHIPS_SHOWN, TYPICAL_SHIELDED_SHIPS)
+                    * (MAX_SHIELD_SEGMENTS + 1) * (DRAW_SOLID_SHIELDS ? 3 : 2);
         }
 
-        drawQueue = new DrawQueue(initialCapacity);
-        shipBatches = new LinkedHashMap<>();
+        drawQueue = new DoubleBufferedDrawQueue(initialCapacity, true);
+        drawQueue.setConvertToLists(true);
+        drawQueue.setFlatColors(true);
+        drawQueue.setCompactVertices(true, radar.getRenderCenter().x,
+                radar.getRenderCenter().y, 2);
+        drawQueue.setName("ShipRenderer");
+        shipBatches = new LinkedHashMap<>(16, 0.75f, true);
 
+        // Icons only keep their sprite's alpha, so contacts are drawn in solid colors
+        icons = new IconCache(MIN_ICON_SIZE, MAX_ICON_SIZE);
         if (SIMPLE_FIGHTERS)
         {
-            simpleBatch = new SpriteBatch(Global.getSettings().getSprite("radar", SIMPLE_ICON));
+            // Shares an atlas page with the other renderers' radar icons
+            simpleIcon = RadarIcons.getIcon(SIMPLE_ICON);
+        }
+
+        if (USE_SPRITE_ATLAS && !SIMPLE_SHIPS)
+        {
+            atlas = new TextureAtlas(ATLAS_PAGE_SIZE, ATLAS_ICON_SIZE, true);
         }
+
+        prewarm();
     }
 
-    private void addShieldToBuffer(ShipAPI contact)
+    // Sets up the icons and batches of every ship that can appear in this
+    // battle now, so reinforcements and launching fighters don't cause hitches
+    private void prewarm()
     {
-        final ShieldAPI shield = contact.getShield();
-        if (shield == null || !shield.isOn())
+        final CombatEngineAPI engine = Global.getCombatEngine();
+        final Set<String> spriteNames = new HashSet<>();
+        for (ShipAPI ship : engine.getShips())
         {
-            return;
+            if (ship.getSpriteAPI() != null)
+            {
+                prewarmSprite(ship.getSpriteAPI(), ship.isFighter());
+                spriteNames.add(ship.getHullSpec().getSpriteName());
+            }
         }
 
-        final float[] radarLoc = radar.getRawPointOnRadar(shield.getLocation());
-        final float size = getShieldRadius(contact, radar);
-        final float startAngle = (float) Math.toRadians(shield.getFacing()
-                - (shield.getActiveArc() / 2f));
-        final float arcAngle = (float) Math.toRadians(shield.getActiveArc());
-        final int numSegments = (int) (MAX_SHIELD_SEGMENTS / (360f / shield.getActiveArc()) + 0.5f);
+        for (FleetSide side : FleetSide.values())
+        {
+            final CombatFleetManagerAPI fm = engine.getFleetManager(side);
+            if (fm == null)
+            {
+                continue;
+            }
 
-        if (numSegments < 1)
+            final List<FleetMemberAPI> members = fm.getDeployedCopy();
+            members.addAll(fm.getReservesCopy());
+            for (FleetMemberAPI member : members)
+            {
+                prewarmHull(member.getHullSpec(), member.isFighterWing(), spriteNames);
+
+                // Fighters launched by carriers never show up as fleet members
+                final ShipVariantAPI variant = member.getVariant();
+                if (variant == null)
+                {
+                    continue;
+                }
+
+                for (String wingId : variant.getFittedWings())
+                {
+                    final FighterWingSpecAPI wing = Global.getSettings().getFighterWingSpec(wingId);
+                    if (wing != null && wing.getVariant() != null)
+                    {
+                        prewarmHull(wing.getVariant().getHullSpec(), true, spriteNames);
+                    }
+                }
+            }
+        }
+
+        LOG.debug("Prepared " + shipBatches.size() + " ship batches for "
+                + spriteNames.size() + " hull sprites" + (atlas == null ? ""
+                : " (" + atlas.getNumPages() + " atlas pages)"));
+    }
+
+    private void prewarmHull(ShipHullSpecAPI hull, boolean isFighter, Set<String> spriteNames)
+    {
+        if (hull == null || hull.getSpriteName() == null
+                || !spriteNames.add(hull.getSpriteName()))
         {
             return;
         }
 
-        // Precalculate the sine and cosine
-        // Instead of recalculating sin/cos for each line segment,
-        // this algorithm rotates the line around the center point
-        final float theta = arcAngle / numSegments;
-        final float cos = (float) FastTrig.cos(theta);
-        final float sin = (float) FastTrig.sin(theta);
+        final SpriteAPI sprite = Global.getSettings().getSprite(hull.getSpriteName());
+        if (sprite != null && sprite.getTextureId() != 0)
+        {
+            prewarmSprite(sprite, isFighter);
+        }
+    }
 
-        // Start at angle startAngle
-        float x = (float) (size * FastTrig.cos(startAngle));
-        float y = (float) (size * FastTrig.sin(startAngle));
-        float tmp;
+    private void prewarmSprite(SpriteAPI sprite, boolean isFighter)
+    {
+        // Ships already on the field are prewarmed first, and anything past the
+        // batch cap would only be evicted again on the first update frame
+        if (shipBatches.size() >= MAX_SHIP_BATCHES)
+        {
+            return;
+        }
 
-        float[] vertices = new float[numSegments * 2 + (DRAW_SOLID_SHIELDS ? 4 : 2)];
-        if (DRAW_SOLID_SHIELDS)
+        // Icon sizes are estimated for the current zoom, assuming the ship's
+        // collision radius is about half its sprite's height
+        final float minSize = (isFighter ? MIN_FIGHTER_SIZE : MIN_SHIP_SIZE),
+                radius = sprite.getHeight() * 0.5f * radar.getCurrentPixelsPerSU()
+                * (isFighter ? FIGHTER_SIZE_MOD : 1f),
+                size = Math.max(radius, minSize) * 2f;
+        if (SIMPLE_SHIPS || (SIMPLE_FIGHTERS && isFighter))
         {
-            vertices[0] = radarLoc[0];
-            vertices[1] = radarLoc[1];
+            getBatch(simpleIcon);
         }
-        for (int i = (DRAW_SOLID_SHIELDS ? 2 : 0); i < vertices.length - 2; i += 2)
+        else
+        {
+            getBatch(atlas != null ? atlas.add(sprite)
+                    : icons.getIcon(sprite, getIconSize(sprite, size)));
+        }
+    }
+
+    private void captureShield(ShipAPI contact)
+    {
+        final ShieldAPI shield = contact.getShield();
+        if (shield == null || !shield.isOn())
         {
-            // Output vertex
-            vertices[i] = x + radarLoc[0];
-            vertices[i + 1] = y + radarLoc[1];
+            return;
+        }
 
-            // Apply the rotation matrix
-            tmp = x;
-            x = (cos * x) - (sin * y);
-            y = (sin * tmp) + (cos * y);
+        final int numSegments = (int) (MAX_SHIELD_SEGMENTS / (360f / shield.getActiveArc()) + 0.5f);
+        if (numSegments < 1)
+        {
+            return;
         }
-        vertices[vertices.length - 2] = x + radarLoc[0];
-        vertices[vertices.length - 1] = y + radarLoc[1];
 
-        // Add vertices to master vertex map
-        drawQueue.addVertices(vertices);
-        drawQueue.finishShape(DRAW_SOLID_SHIELDS ? GL_TRIANGLE_FAN : GL_LINE_STRIP);
+        final float[] radarLoc = radar.getRawPointOnRadar(shield.getLocation());
+        contactShapes.addShield(radarLoc[0], radarLoc[1], getShieldRadius(contact, radar),
+                (float) Math.toRadians(shield.getFacing() - (shield.getActiveArc() / 2f)),
+                (float) Math.toRadians(shield.getActiveArc()), numSegments);
     }
 
-    private void addTargetMarker(ShipAPI target)
+    private void captureTargetMarker(ShipAPI target)
     {
-        // Generate vertices
-        final float size = getContactRadius(target, radar);
-        final Vector2f radarLoc = radar.getPointOnRadar(target.getLocation());
-        final float margin = size * .5f;
-        final float[] vertices = new float[]
-                {
-                        // Upper left corner
-                        radarLoc.x - size, radarLoc.y + size, // 0
-                        radarLoc.x - margin, radarLoc.y + size, // 1
-                        radarLoc.x - size, radarLoc.y + size, // 0
-                        radarLoc.x - size, radarLoc.y + margin, // 2
-                        // Upper right corner
-                        radarLoc.x + size, radarLoc.y + size, // 3
-                        radarLoc.x + margin, radarLoc.y + size, // 4
-                        radarLoc.x + size, radarLoc.y + size, // 3
-                        radarLoc.x + size, radarLoc.y + margin, // 5
-                        // Lower left corner
-                        radarLoc.x - size, radarLoc.y - size, // 6
-                        radarLoc.x - margin, radarLoc.y - size, // 7
-                        radarLoc.x - size, radarLoc.y - size, // 6
-                        radarLoc.x - size, radarLoc.y - margin, // 8
-                        // Lower right corner
-                        radarLoc.x + size, radarLoc.y - size, // 9
-                        radarLoc.x + margin, radarLoc.y - size, // 10
-                        radarLoc.x + size, radarLoc.y - size, // 9
-                        radarLoc.x + size, radarLoc.y - margin  // 11
-                };
-
-        drawQueue.setNextColor(MARKER_COLOR, radar.getContactAlpha());
-        drawQueue.addVertices(vertices);
-        drawQueue.finishShape(GL_LINES);
+        final float[] radarLoc = radar.getRawPointOnRadar(target.getLocation());
+        contactShapes.setMarker(radarLoc[0], radarLoc[1],
+                getContactRadius(target, radar), radar.getContactAlpha());
     }
 
     private Color getColor(ShipAPI ship, int playerSide)
@@ -274,9 +491,9 @@ public class ShipRenderer implements CombatRenderer
     private void addSimpleShip(ShipAPI ship, int playerSide)
     {
         final float[] loc = radar.getRawPointOnRadar(ship.getLocation());
-        simpleBatch.add(loc[0], loc[1], ship.getFacing(), ship.getSpriteAPI().getHeight()
-                        * getSizeModifier(ship, radar) * radar.getCurrentPixelsPerSU(),
-                getColor(ship, playerSide), getAlphaMod(ship));
+        final float size = ship.getSpriteAPI().getHeight() * getSizeModifier(ship, radar)
+                * radar.getCurrentPixelsPerSU();
+        addToBatch(simpleIcon, loc, ship.getFacing(), size, ship, playerSide);
     }
 
     private void addShip(ShipAPI ship, int playerSide)
@@ -287,20 +504,76 @@ public class ShipRenderer implements CombatRenderer
             return;
         }
 
-        final int textureId = sprite.getTextureId();
-        SpriteBatch batch = shipBatches.get(textureId);
+        final float[] loc = radar.getRawPointOnRadar(ship.getLocation());
+        final float size = sprite.getHeight() * getSizeModifier(ship, radar)
+                * radar.getCurrentPixelsPerSU();
+
+        // With the atlas, there's one batch per atlas page instead of one per hull
+        final TextureAtlas.Region region = (atlas != null ? atlas.add(sprite)
+                : icons.getIcon(sprite, getIconSize(sprite, size)));
+        addToBatch(region, loc, ship.getFacing(), size, ship, playerSide);
+    }
+
+    // Returns the largest dimension of a sprite drawn with the given height
+    private static float getIconSize(SpriteAPI sprite, float height)
+    {
+        return Math.max(height, height * sprite.getWidth() / sprite.getHeight());
+    }
+
+    private ShipBatch getBatch(TextureAtlas.Region region)
+    {
+        ShipBatch batch = shipBatches.get(region.getTextureId());
         if (batch == null)
         {
-            batch = new SpriteBatch(sprite, GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
-            shipBatches.put(textureId, batch);
+            batch = new ShipBatch(region.getTextureId());
+            shipBatches.put(region.getTextureId(), batch);
         }
 
-        final float[] loc = radar.getRawPointOnRadar(ship.getLocation());
-        batch.add(loc[0], loc[1], ship.getFacing(), ship.getSpriteAPI().getHeight()
-                        * getSizeModifier(ship, radar) * radar.getCurrentPixelsPerSU(),
+        return batch;
+    }
+
+    private void addToBatch(TextureAtlas.Region region, float[] loc, float facing,
+            float size, ShipAPI ship, int playerSide)
+    {
+        // Batches are only cleared once they're first used in an update frame
+        final ShipBatch batch = getBatch(region);
+        if (batch.lastUsedFrame != updateFrame)
+        {
+            batch.lastUsedFrame = updateFrame;
+            batch.sprites.clear();
+            activeBatches.add(batch.sprites);
+        }
+
+        batch.sprites.add(loc[0], loc[1], facing, size, region,
                 getColor(ship, playerSide), getAlphaMod(ship));
     }
 
+    // Frees the least recently used batches that weren't used this update
+    // frame until there are no more than MAX_SHIP_BATCHES left
+    private void evictIdleBatches()
+    {
+        final Iterator<ShipBatch> iter = shipBatches.values().iterator();
+        while (shipBatches.size() > MAX_SHIP_BATCHES && iter.hasNext())
+        {
+            final ShipBatch batch = iter.next();
+            if (batch.lastUsedFrame == updateFrame)
+            {
+                // Every batch after this one was used more recently
+                break;
+            }
+
+            // Without the atlas, a batch's texture is usually an icon only it
+            // draws, which is freed too (the shared simple icon isn't cached)
+            // Atlas pages hold many hulls' icons, so they're kept for reuse
+            batch.sprites.dispose();
+            if (atlas == null)
+            {
+                icons.release(batch.textureId);
+            }
+            iter.remove();
+        }
+    }
+
     @Override
     public void render(ShipAPI player, float amount, boolean isUpdateFrame)
     {
@@ -311,75 +584,68 @@ public class ShipRenderer implements CombatRenderer
 
         if (isUpdateFrame)
         {
-            drawQueue.clear();
-            if (SIMPLE_FIGHTERS)
+            updateFrame++;
+            activeBatches.clear();
+
+            final List<ShipAPI> ships = radar.filterVisible(
+                    Global.getCombatEngine().getShips(), MAX_SHIPS_SHOWN);
+
+            // Shields and the target marker are built on the fill thread
+            // while the ship sprites are batched below
+            contactShapes.clear();
+            if (SHOW_TARGET_MARKER)
             {
-                simpleBatch.clear();
+                final ShipAPI target = player.getShipTarget();
+                // Pieces aren't drawn (see below), so they don't get a marker either
+                if (target != null && !target.isPiece() && ships.contains(target))
+                {
+                    captureTargetMarker(target);
+                }
             }
-            for (SpriteBatch batch : shipBatches.values())
+            if (SHOW_SHIELDS)
             {
-                batch.clear();
+                contactShapes.shieldAlpha = radar.getContactAlpha()
+                        * (DRAW_SOLID_SHIELDS ? 0.5f : 1f);
+                for (ShipAPI contact : ships)
+                {
+                    captureShield(contact);
+                }
             }
+            drawQueue.fill(contactShapes);
 
-            final List<ShipAPI> ships = radar.filterVisible(
-                    Global.getCombatEngine().getShips(), MAX_SHIPS_SHOWN);
-            if (!ships.isEmpty())
+            for (ShipAPI ship : ships)
             {
-                for (ShipAPI ship : ships)
+                // TODO: Get these to look good (re-add triangulator?)
+                if (ship.isPiece())
                 {
-                    // TODO: Get these to look good (re-add triangulator?)
-                    if (ship.isPiece())
-                    {
-                        //ship.getVisualBounds()
-                        continue;
-                    }
-
-                    // Draw marker around current ship target
-                    if (SHOW_TARGET_MARKER && player.getShipTarget() == ship)
-                    {
-                        addTargetMarker(ship);
-                    }
-
-                    // Draw ship using sprite or triangle, depending on settings
-                    if (SIMPLE_SHIPS || (SIMPLE_FIGHTERS && ship.isFighter()))
-                    {
-                        addSimpleShip(ship, player.getOwner());
-                    }
-                    else
-                    {
-                        addShip(ship, player.getOwner());
-                    }
+                    //ship.getVisualBounds()
+                    continue;
                 }
 
-                // Get updated list of shields
-                if (SHOW_SHIELDS)
+                // Draw ship using sprite or triangle, depending on settings
+                if (SIMPLE_SHIPS || (SIMPLE_FIGHTERS && ship.isFighter()))
                 {
-                    drawQueue.setNextColor(SHIELD_COLOR, radar.getContactAlpha()
-                            * (DRAW_SOLID_SHIELDS ? 0.5f : 1f));
-                    for (ShipAPI contact : ships)
-                    {
-                        addShieldToBuffer(contact);
-                    }
+                    addSimpleShip(ship, player.getOwner());
+                }
+                else
+                {
+                    addShip(ship, player.getOwner());
                 }
             }
 
-            drawQueue.finish();
-            if (SIMPLE_FIGHTERS)
-            {
-                simpleBatch.finish();
-            }
-            for (SpriteBatch batch : shipBatches.values())
+            for (SpriteBatch batch : activeBatches)
             {
                 batch.finish();
             }
-        }
 
-        // Draw cached render data
-        radar.enableStencilTest();
-        glEnable(GL_BLEND);
+            evictIdleBatches();
+        }
 
+        // Draw cached render data, waiting for this update frame's fill if needed
         if (!drawQueue.isEmpty())
         {
+            radar.enableStencilTest();
+            glEnable(GL_BLEND);
             glEnableClientState(GL_VERTEX_ARRAY);
             glEnableClientState(GL_COLOR_ARRAY);
             glEnable(GL_POLYGON_SMOOTH);
@@ -387,31 +653,17 @@ public class ShipRenderer implements CombatRenderer
             glDisable(GL_POLYGON_SMOOTH);
             glDisableClientState(GL_COLOR_ARRAY);
             glDisableClientState(GL_VERTEX_ARRAY);
+            glDisable(GL_BLEND);
+            radar.disableStencilTest();
         }
 
-        glEnable(GL_TEXTURE_2D);
-        if (SIMPLE_FIGHTERS && !simpleBatch.isEmpty())
+        // Icon textures already have their filtering set up, and being
+        // alpha-only they're tinted by the contact color with no extra state
+        final SpriteBatchManager spriteBatches = radar.getSpriteBatchManager();
+        for (SpriteBatch toDraw : activeBatches)
         {
-            simpleBatch.draw();
+            spriteBatches.add(toDraw, SPRITE_LAYER);
         }
-
-        glTexParameteri(GL_TEXTURE_2D, GL_GENERATE_MIPMAP, GL_TRUE);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST_MIPMAP_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-        glTexEnvi(GL_TEXTURE_ENV, GL_TEXTURE_ENV_MODE, GL_COMBINE);
-        glTexEnvi(GL_TEXTURE_ENV, GL_COMBINE_RGB, GL_REPLACE);
-        glTexEnvi(GL_TEXTURE_ENV, GL_SRC0_RGB, GL_PREVIOUS);
-        //glTexEnvi(GL_TEXTURE_ENV, GL_SRC1_RGB, GL_TEXTURE);
-        //glTexEnvi(GL_TEXTURE_ENV, GL_OPERAND0_RGB, GL_SRC_COLOR);
-        //glTexEnvi(GL_TEXTURE_ENV, GL_OPERAND1_RGB, GL_SRC_COLOR);
-        for (SpriteBatch toDraw : shipBatches.values())
-        {
-            toDraw.draw();
-        }
-        glDisable(GL_TEXTURE_2D);
-        glDisable(GL_BLEND);
-
-        radar.disableStencilTest();
     }
 
     private static void checkError()
@@ -0,0 +1,109 @@
+package org.lazywizard.radar.util;
+
+import java.io.IOException;
+import com.fs.starfarer.api.Global;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remembers the peak vertex and shape counts of each named {@link DrawQueue}
+ * between battles (and game sessions), so DrawQueues can be created at the
+ * size they'll actually need instead of resizing mid-battle.
+ * <p>
+ * Stats are stored in a small JSON file in Starsector's common data folder.
+ * Each battle's peak replaces the stored value, but stored values only decay
+ * by a quarter per battle, so one quiet battle won't undo the sizing of a
+ * large one.
+ * <p>
+ * Only used internally by {@link DrawQueue}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+final class CapacityStats
+{
+    private static final Logger Log = Global.getLogger(CapacityStats.class);
+    private static final String STATS_FILE = "lw_radar_queue_stats.json";
+    private static final String KEY_VERTICES = "peakVertices", KEY_SHAPES = "peakShapes";
+    private static JSONObject stats = null;
+    private static boolean dirty = false;
+
+    private static JSONObject getStats()
+    {
+        if (stats == null)
+        {
+            stats = new JSONObject();
+            try
+            {
+                if (Global.getSettings().fileExistsInCommon(STATS_FILE))
+                {
+                    stats = new JSONObject(Global.getSettings().readTextFileFromCommon(STATS_FILE));
+                }
+            }
+            catch (IOException | JSONException ex)
+            {
+                Log.warn("Failed to load DrawQueue capacity stats, starting fresh", ex);
+            }
+        }
+
+        return stats;
+    }
+
+    static int getPeakVertices(String name)
+    {
+        final JSONObject entry = getStats().optJSONObject(name);
+        return (entry == null ? 0 : entry.optInt(KEY_VERTICES, 0));
+    }
+
+    static int getPeakShapes(String name)
+    {
+        final JSONObject entry = getStats().optJSONObject(name);
+        return (entry == null ? 0 : entry.optInt(KEY_SHAPES, 0));
+    }
+
+    static void record(String name, int peakVertices, int peakShapes)
+    {
+        final int vertices = Math.max(peakVertices, getPeakVertices(name) * 3 / 4),
+                shapes = Math.max(peakShapes, getPeakShapes(name) * 3 / 4);
+        if (vertices == getPeakVertices(name) && shapes == getPeakShapes(name))
+        {
+            return;
+        }
+
+        try
+        {
+            final JSONObject entry = new JSONObject();
+            entry.put(KEY_VERTICES, vertices);
+            entry.put(KEY_SHAPES, shapes);
+            getStats().put(name, entry);
+            dirty = true;
+        }
+        catch (JSONException ex)
+        {
+            Log.warn("Failed to record capacity stats for DrawQueue " + name, ex);
+        }
+    }
+
+    static void save()
+    {
+        if (!dirty)
+        {
+            return;
+        }
+
+        try
+        {
+            Global.getSettings().writeTextFileToCommon(STATS_FILE, getStats().toString(4));
+            dirty = false;
+        }
+        catch (IOException | JSONException ex)
+        {
+            Log.warn("Failed to save DrawQueue capacity stats", ex);
+        }
+    }
+
+    private CapacityStats()
+    {
+    }
+}
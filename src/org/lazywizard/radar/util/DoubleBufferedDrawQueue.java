@@ -0,0 +1,383 @@
+package org.lazywizard.radar.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import com.fs.starfarer.api.Global;
+import org.apache.log4j.Logger;
+import org.lwjgl.opengl.GL15;
+
+/**
+ * A pair of {@link DrawQueue}s used as front and back buffers, where the back
+ * buffer is filled on a background thread while the rendering thread carries
+ * on with other work. Only uploading and drawing happen on the rendering
+ * thread.
+ * <p>
+ * Usage instructions:
+ * <p>
+ * Step 1: On the rendering thread, copy everything your geometry depends on
+ * (positions, sizes, colors) into a {@link DoubleBufferedDrawQueue.Filler}.
+ * Game state such as the combat engine must <i>never</i> be read from the
+ * filler itself, as it isn't safe to access from other threads.
+ * <p>
+ * Step 2: Call {@link DoubleBufferedDrawQueue#fill(Filler)}. The back buffer
+ * is cleared and handed to the filler on the radar's fill thread, and this
+ * method returns right away.
+ * <p>
+ * Step 3: Do any other work, such as building sprite batches.
+ * <p>
+ * Step 4: Call {@link DoubleBufferedDrawQueue#draw()}. This waits for the
+ * fill to end if it hasn't already, uploads the back buffer, swaps it to the
+ * front and draws it. Until the next fill, later calls draw the same
+ * contents again.
+ * <p>
+ * Filling a DrawQueue makes no OpenGL calls unless it has a byte cap, so the
+ * byte cap of both buffers is removed. A filler must only add shapes to the
+ * DrawQueue it's given: it must not call {@link DrawQueue#finish()},
+ * {@link DrawQueue#draw()} or any other method that affects OpenGL state, and
+ * must not keep the DrawQueue around after returning. A filler must also not
+ * be modified until the next call to {@code draw()}, {@code isEmpty()} or
+ * {@code fill()} on the rendering thread, as that's the only guarantee the
+ * fill has ended.
+ * <p>
+ * Both buffers are created in the current ownership scope (see
+ * {@link DrawQueue#openScope()}). Closing a scope waits for any fill still in
+ * progress before disposing of them.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public class DoubleBufferedDrawQueue
+{
+    private static final Logger Log = Global.getLogger(DoubleBufferedDrawQueue.class);
+    // Every fill runs on a single background thread, in the order submitted
+    private static ExecutorService fillThread = null;
+    // DoubleBufferedDrawQueues with a fill that hasn't been waited for yet
+    private static final List<DoubleBufferedDrawQueue> filling = new ArrayList<>();
+    private DrawQueue front, back;
+    private Future<?> pendingFill = null;
+    private boolean hasContents = false, disposed = false;
+
+    /**
+     * Builds the contents of a {@link DoubleBufferedDrawQueue}'s back buffer
+     * on the radar's fill thread.
+     *
+     * @since 3.1
+     */
+    public interface Filler
+    {
+        /**
+         * Adds every shape to an empty {@link DrawQueue}. Called on the
+         * radar's fill thread, so only data copied into this filler
+         * beforehand may be used.
+         * <p>
+         * @param queue The cleared back buffer. Don't finish or draw it.
+         * <p>
+         * @since 3.1
+         */
+        public void fill(DrawQueue queue);
+    }
+
+    /**
+     * Waits for every fill still in progress to end. Called when a scope is
+     * closed, so you should never need to call it yourself.
+     * <p>
+     * @since 3.1
+     */
+    static void awaitAllFills()
+    {
+        // Each DoubleBufferedDrawQueue still uploads its result the next time it's used
+        for (DoubleBufferedDrawQueue queue : filling)
+        {
+            waitFor(queue.pendingFill);
+        }
+
+        filling.clear();
+    }
+
+    private static ExecutorService getFillThread()
+    {
+        if (fillThread == null)
+        {
+            fillThread = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable task)
+                {
+                    final Thread thread = new Thread(task, "Radar DrawQueue fill thread");
+                    // Never keeps the game running after it's closed
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return fillThread;
+    }
+
+    // Waits for a fill to end, even if interrupted, as its DrawQueue can't be
+    // touched until it has. Returns whatever the fill threw, if anything
+    private static Throwable waitFor(Future<?> fill)
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    fill.get();
+                    return null;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException ex)
+                {
+                    return ex.getCause();
+                }
+            }
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Creates a new DoubleBufferedDrawQueue using a pair of DrawQueues with
+     * the draw flag {@link GL15#GL_DYNAMIC_DRAW}. Must be called on the
+     * rendering thread.
+     * <p>
+     * @param initialCapacity The initial maximum number of vertices each
+     *                        buffer should hold. See
+     *                        {@link DrawQueue#DrawQueue(int, int, boolean)}.
+     * @param interleaved     Whether each buffer should pack position and
+     *                        color data into a single interleaved buffer.
+     * <p>
+     * @since 3.1
+     */
+    public DoubleBufferedDrawQueue(int initialCapacity, boolean interleaved)
+    {
+        front = new DrawQueue(initialCapacity, GL15.GL_DYNAMIC_DRAW, interleaved);
+        back = new DrawQueue(initialCapacity, GL15.GL_DYNAMIC_DRAW, interleaved);
+
+        // A byte cap would flush chunks to the graphics card while filling
+        front.setMaxBytes(0);
+        back.setMaxBytes(0);
+    }
+
+    /**
+     * Names both buffers. See {@link DrawQueue#setName(String)}. Must be
+     * called on the rendering thread before the first fill.
+     * <p>
+     * @param name A unique name for this DoubleBufferedDrawQueue.
+     * <p>
+     * @since 3.1
+     */
+    public void setName(String name)
+    {
+        checkIdle();
+        front.setName(name);
+        back.setName(name);
+    }
+
+    /**
+     * Sets whether both buffers store a single color per shape. See
+     * {@link DrawQueue#setFlatColors(boolean)}. Must be called on the
+     * rendering thread before the first fill.
+     * <p>
+     * @param flatColors Whether to use a single color per shape.
+     * <p>
+     * @since 3.1
+     */
+    public void setFlatColors(boolean flatColors)
+    {
+        checkIdle();
+        front.setFlatColors(flatColors);
+        back.setFlatColors(flatColors);
+    }
+
+    /**
+     * Sets whether both buffers store vertex positions in compact form. See
+     * {@link DrawQueue#setCompactVertices(boolean, float, float, int)}. Must
+     * be called on the rendering thread before the first fill.
+     * <p>
+     * @param compact      Whether to store positions in compact form.
+     * @param originX      The x coordinate all positions are stored relative
+     *                     to.
+     * @param originY      The y coordinate all positions are stored relative
+     *                     to.
+     * @param subPixelBits How many bits of each coordinate are used for
+     *                     sub-pixel precision (between 0 and 8).
+     * <p>
+     * @since 3.1
+     */
+    public void setCompactVertices(boolean compact, float originX, float originY,
+            int subPixelBits)
+    {
+        checkIdle();
+        front.setCompactVertices(compact, originX, originY, subPixelBits);
+        back.setCompactVertices(compact, originX, originY, subPixelBits);
+    }
+
+    /**
+     * Sets whether both buffers rewrite connected shapes into their
+     * independent equivalent. See {@link DrawQueue#setConvertToLists(boolean)}.
+     * Must be called on the rendering thread before the first fill.
+     * <p>
+     * @param convertToLists Whether to convert connected shapes into their
+     *                       independent equivalent.
+     * <p>
+     * @since 3.1
+     */
+    public void setConvertToLists(boolean convertToLists)
+    {
+        checkIdle();
+        front.setConvertToLists(convertToLists);
+        back.setConvertToLists(convertToLists);
+    }
+
+    // Options can't be changed while the fill thread may be using them
+    private void checkIdle()
+    {
+        if (disposed)
+        {
+            throw new RuntimeException("DoubleBufferedDrawQueue has already been disposed!");
+        }
+
+        if (pendingFill != null || hasContents)
+        {
+            throw new RuntimeException("Options must be set before the first fill!");
+        }
+    }
+
+    /**
+     * Starts filling the back buffer on the radar's fill thread. If a
+     * previous fill hasn't been drawn yet, it's waited for and uploaded
+     * first. Must be called on the rendering thread.
+     * <p>
+     * @param filler Adds the new contents to the back buffer. Must hold its
+     *               own copy of everything it needs.
+     * <p>
+     * @since 3.1
+     */
+    public void fill(final Filler filler)
+    {
+        if (disposed)
+        {
+            throw new RuntimeException("DoubleBufferedDrawQueue has already been disposed!");
+        }
+
+        swapIfFilled();
+
+        // Submitting the task is what makes the back buffer visible to the fill thread
+        final DrawQueue target = back;
+        pendingFill = getFillThread().submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                target.clear();
+                filler.fill(target);
+            }
+        });
+        filling.add(this);
+    }
+
+    // Waits for the fill in progress, then uploads its result and makes it the front buffer
+    private void swapIfFilled()
+    {
+        if (pendingFill == null)
+        {
+            return;
+        }
+
+        final Throwable error = waitFor(pendingFill);
+        pendingFill = null;
+        filling.remove(this);
+        if (error != null)
+        {
+            // The back buffer is cleared again before the next fill
+            throw new RuntimeException("Failed to fill DoubleBufferedDrawQueue", error);
+        }
+
+        back.finish();
+        final DrawQueue oldFront = front;
+        front = back;
+        back = oldFront;
+        hasContents = true;
+    }
+
+    /**
+     * Checks whether the most recent fill added any vertex data. Waits for
+     * and uploads a fill still in progress first. Must be called on the
+     * rendering thread.
+     * <p>
+     * @return {@code true} if there is nothing to draw, {@code false}
+     *         otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean isEmpty()
+    {
+        swapIfFilled();
+        return !hasContents || front.isEmpty();
+    }
+
+    /**
+     * Draws the contents of the most recent fill, waiting for and uploading
+     * it first if it's still in progress. Does nothing if nothing has been
+     * filled yet. Must be called on the rendering thread. This method has the
+     * same OpenGL client state requirements as {@link DrawQueue#draw()}.
+     * <p>
+     * @since 3.1
+     */
+    public void draw()
+    {
+        swapIfFilled();
+        if (hasContents)
+        {
+            front.draw();
+        }
+    }
+
+    /**
+     * Releases both buffers' resources on the graphics card, after waiting
+     * for any fill still in progress. Must be called on the rendering thread.
+     * Calling this more than once has no effect.
+     * <p>
+     * @since 3.1
+     */
+    public void dispose()
+    {
+        if (disposed)
+        {
+            return;
+        }
+
+        if (pendingFill != null)
+        {
+            final Throwable error = waitFor(pendingFill);
+            if (error != null)
+            {
+                Log.debug("Discarding failed fill of disposed DoubleBufferedDrawQueue", error);
+            }
+
+            pendingFill = null;
+            filling.remove(this);
+        }
+
+        front.dispose();
+        back.dispose();
+        disposed = true;
+    }
+}
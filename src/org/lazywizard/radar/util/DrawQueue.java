@@ -3,8 +3,9 @@ package org.lazywizard.radar.util;
 import java.awt.Color;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -14,11 +15,18 @@ import org.apache.log4j.Logger;
 import org.lazywizard.radar.CommonRadar;
 import org.lazywizard.radar.RadarSettings;
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GLContext;
 import org.lwjgl.util.vector.Vector2f;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.glMultiDrawArrays;
 import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL31.GL_PRIMITIVE_RESTART;
+import static org.lwjgl.opengl.GL31.glPrimitiveRestartIndex;
+import static org.lwjgl.opengl.NVPrimitiveRestart.GL_PRIMITIVE_RESTART_NV;
+import static org.lwjgl.opengl.NVPrimitiveRestart.glPrimitiveRestartIndexNV;
 
 /**
  * A class to simplify multi-shape primitive rendering by keeping track of draw
@@ -42,7 +50,10 @@ import static org.lwjgl.opengl.GL15.*;
  * <p>
  * Step 3: Add the vertices of your shape with
  * {@link DrawQueue#addVertices(float[])}. You can change the color again
- * between sets of vertices.
+ * between sets of vertices. If you want to avoid creating an array for every
+ * shape, call {@link DrawQueue#reserveVertices(int)} once with the number of
+ * vertices in the shape, then write each vertex with
+ * {@link DrawQueue#put(float, float)}.
  * <p>
  * Step 4: Once you are done setting up a shape call
  * {@link DrawQueue#finishShape(int)} with the draw mode that shape should use.
@@ -60,31 +71,147 @@ import static org.lwjgl.opengl.GL15.*;
  * <p>
  * Step 7: When you need to reuse a DrawQueue, just return to Step 2. After
  * finishing a DrawQueue it is ready for writing again.
+ * <p>
+ * DrawQueues can optionally be created in interleaved mode (see
+ * {@link DrawQueue#DrawQueue(int, int, boolean)}), where the position and
+ * color of each vertex are packed together in a single buffer. This halves the
+ * number of buffer binds and uploads needed, and is recommended for queues
+ * that hold a large number of vertices.
+ * <p>
+ * If the user's card supports it (see
+ * {@link RadarSettings#usesStreamingUploads()}), non-static DrawQueues upload
+ * their data into a ring of buffer regions instead of replacing the entire
+ * buffer each update, so uploading never has to wait for the GPU to finish
+ * reading the previous frame's data.
+ * <p>
+ * DrawQueues containing many shapes that use connected draw modes (such as
+ * {@link GL11#GL_TRIANGLE_FAN} or {@link GL11#GL_LINE_STRIP}) can enable
+ * indexed drawing with {@link DrawQueue#setIndexedDrawing(boolean)}, which
+ * submits every run of same-mode shapes with a single draw call.
+ * <p>
+ * DrawQueues where every shape is a single solid color can enable flat colors
+ * with {@link DrawQueue#setFlatColors(boolean)}. No per-vertex color data is
+ * stored or uploaded in this mode; instead each run of same-colored shapes is
+ * drawn using {@link GL11#glColor4ub(byte, byte, byte, byte)}.
+ * <p>
+ * DrawQueues whose shapes all lie within a few thousand pixels of a known
+ * point (such as the radar's center) can enable compact vertices with
+ * {@link DrawQueue#setCompactVertices(boolean, float, float, int)}, which
+ * stores each coordinate as a fixed-point {@link GL11#GL_SHORT} relative to
+ * that point, halving the memory used by vertex positions.
+ * <p>
+ * If {@link RadarSettings#usesSharedVertexBuffer()} is enabled, all
+ * DrawQueues sub-allocate their data from a single shared buffer object
+ * rather than creating their own, which keeps the radar's total buffer
+ * memory bounded. Each DrawQueue still binds that buffer and uploads its own
+ * data when it's finished, and binds it again when drawn.
+ * <p>
+ * Filling a DrawQueue makes no OpenGL calls unless it has a byte cap (see
+ * {@link DrawQueue#setMaxBytes(int)}); only {@link DrawQueue#finish()} and
+ * {@link DrawQueue#draw()} do. {@link DoubleBufferedDrawQueue} uses this to
+ * fill DrawQueues on a background thread.
+ * <p>
+ * Any buffers a DrawQueue allocates on the graphics card are released when
+ * {@link DrawQueue#dispose()} is called. DrawQueues created while a scope is
+ * open (see {@link DrawQueue#openScope()}) are owned by that scope, and will
+ * be disposed automatically when it is closed; the radar opens a new scope
+ * for each battle.
+ * <p>
+ * DrawQueues given a name with {@link DrawQueue#setName(String)} remember
+ * their peak size between battles, and will be created at that size next
+ * time. All DrawQueues shrink their buffers again after a sustained period
+ * of using only a small fraction of them.
  *
  * @author LazyWizard
  * @since 2.0
  */
-// TODO: Implement interleavened VBO for maximum efficiency
 public class DrawQueue
 {
     private static final Logger Log = Global.getLogger(DrawQueue.class);
     private static final int SIZEOF_VERTEX = 2, SIZEOF_COLOR = 4,
-            STRIDE_VERTEX = 8, STRIDE_COLOR = 4;
-    private static final Map<WeakReference<DrawQueue>, IntBuffer> refs = new LinkedHashMap<>();
+            STRIDE_VERTEX = 8, STRIDE_COMPACT_VERTEX = 4, STRIDE_COLOR = 4;
+    // Compact coordinates are clamped to this range to avoid wrapping around
+    private static final float MAX_COMPACT = Short.MAX_VALUE, MIN_COMPACT = Short.MIN_VALUE;
+    // How batches of connected shapes are submitted when indexed drawing is enabled
+    private static final int INDEX_NONE = 0, INDEX_RESTART = 1,
+            INDEX_RESTART_NV = 2, INDEX_MULTIDRAW = 3;
+    // Buffers shrink after this many consecutive finishes using less than a
+    // quarter of their capacity (about 30 seconds at the default radar FPS)
+    private static final int SHRINK_DELAY = 600, SHRINK_THRESHOLD = 4;
+    // Index used to mark the end of a shape within an index buffer
+    private static final int RESTART_INDEX = -1;
+    private static final Map<WeakReference<DrawQueue>, BufferRecord> refs = new LinkedHashMap<>();
+    // Whether newly created DrawQueues are owned by the current scope
+    private static boolean scopeOpen = false;
+    // How many uploads were done in full, partially or skipped since the last reset
+    private static int numFullUploads = 0, numPartialUploads = 0, numSkippedUploads = 0;
     private final byte[] currentColor = new byte[]
     {
         Byte.MAX_VALUE, Byte.MAX_VALUE, Byte.MAX_VALUE, Byte.MAX_VALUE
     };
-    private final List<BatchMarker> batchMarkers = new ArrayList<>();
+    // Draw mode and end index of each batch; consecutive shapes are merged when possible
+    private int[] batchModes = new int[16], batchEnds = new int[16],
+            batchFirstShapes = new int[16], batchColors = new int[16];
+    private int numBatches = 0;
+    // End index of every individual shape, needed to split up batches when drawing
+    private int[] shapeEnds = new int[16];
+    private int numShapes = 0;
+    // Only used when indexed drawing is enabled
+    private int indexMode = INDEX_NONE, indexId = 0;
+    private int[] batchIndexOffsets = new int[16], batchIndexCounts = new int[16];
+    private IntBuffer indexMap, shapeFirsts, shapeCounts;
+    // Int buffers are views, so the byte buffers behind them are what gets freed
+    private ByteBuffer indexBytes, shapeFirstBytes, shapeCountBytes;
+    // Reusable copy of the current shape, only used when converting it to list form
+    private byte[] vertexScratch = new byte[0], colorScratch = new byte[0];
+    private boolean convertToLists = false;
     private final int vertexId, colorId, drawFlag;
+    private final boolean interleaved;
+    // Only used if the shared vertex buffer is enabled
+    private final VertexArena arena;
+    private final VertexArena.Allocation vertexAlloc, colorAlloc;
+    // Flat color mode stores one color per batch instead of one per vertex
+    private boolean flatColors = false, usesColorBuffer;
+    // Compact mode stores positions as fixed-point shorts relative to an origin
+    private boolean compactVertices = false;
+    private float compactOriginX = 0f, compactOriginY = 0f, compactScale = 1f;
+    private int vertexStride = STRIDE_VERTEX, stride;
+    private VertexFormat vertexFormat;
+    // Only used if streaming uploads are supported and enabled
+    private final StreamingBuffer vertexStream, colorStream;
+    // In interleaved mode vertexMap holds both position and color data, and
+    // colorMap is null whenever colors aren't stored per vertex in their own buffer
     private ByteBuffer vertexMap, colorMap;
-    private boolean finished = false;
+    private int vertexOffset = 0, colorOffset = 0;
+    private boolean finished = false, disposed = false;
+    // Tracks this DrawQueue's native resources so they can be released even if
+    // it's garbage collected without being disposed
+    private final WeakReference<DrawQueue> ref = new WeakReference<>(this);
+    private final BufferRecord record;
+    // Only used if change tracking is enabled
+    private UploadTracker vertexTracker = null, colorTracker = null;
+    // Only used if static capture is enabled
+    private boolean staticCapture = false, captureStale = true;
+    private int listId = 0;
+    // Used to shrink buffers after a sustained period of low usage
+    // Buffers are never shrunk below the capacity they were pre-sized to
+    private int lowUsageFinishes = 0, lowUsagePeak = 0, shrinkTo = 0, minCapacity = 0;
+    // Only used in bounded mode, where finished shapes are flushed to the card in
+    // chunks once the native buffers are full; chunkBase is the index of the
+    // first vertex still in the native buffers
+    private int maxBytes = 0, chunkBase = 0, numChunks = 0;
+    private int[] chunkEndBatches = new int[0], chunkBaseVertices = new int[0],
+            chunkVertexIds = new int[0], chunkColorIds = new int[0];
 
     /**
      * Releases the vertex and color buffers of all DrawQueues that have been
-     * garbage collected. Necessary due to the lack of a callback at the end of
-     * a combat/campaign scenario. This is called internally by the mod, so you
-     * should never need to call it yourself.
+     * garbage collected without being disposed. Necessary due to the lack of a
+     * callback at the end of a combat/campaign scenario. This is called
+     * internally by the mod, so you should never need to call it yourself.
+     * <p>
+     * If {@link RadarSettings#isDetectingDrawQueueLeaks()} is enabled, every
+     * unscoped DrawQueue released this way is logged along with where it was
+     * created.
      * <p>
      * @since 2.0
      */
@@ -93,14 +220,21 @@ public class DrawQueue
         // Check if any of our old DrawQueues are ready for garbage collection
         // If so, ensure we release their allocated buffers from the graphics card
         int totalReleased = 0;
-        for (Iterator<Map.Entry<WeakReference<DrawQueue>, IntBuffer>> iter
+        for (Iterator<Map.Entry<WeakReference<DrawQueue>, BufferRecord>> iter
                 = refs.entrySet().iterator(); iter.hasNext();)
         {
-            Map.Entry<WeakReference<DrawQueue>, IntBuffer> entry = iter.next();
+            Map.Entry<WeakReference<DrawQueue>, BufferRecord> entry = iter.next();
             if (entry.getKey().get() == null)
             {
+                final BufferRecord record = entry.getValue();
+                if (record.allocationSite != null && !record.scoped)
+                {
+                    Log.warn("Leaked DrawQueue was never disposed (" + record.bytes
+                            + " bytes of native buffers), allocated at:", record.allocationSite);
+                }
+
                 totalReleased++;
-                glDeleteBuffers(entry.getValue());
+                record.release();
                 iter.remove();
             }
         }
@@ -111,6 +245,164 @@ public class DrawQueue
         }
     }
 
+    /**
+     * Opens a new ownership scope. Every DrawQueue created until
+     * {@link DrawQueue#closeScope()} is called is owned by this scope, and will
+     * be disposed when it is closed. If a scope is already open it is closed
+     * first. The radar opens a scope at the start of each battle, so you
+     * should never need to call this yourself.
+     * <p>
+     * @since 3.1
+     */
+    public static void openScope()
+    {
+        if (scopeOpen)
+        {
+            closeScope();
+        }
+
+        scopeOpen = true;
+    }
+
+    /**
+     * Closes the current ownership scope, disposing of every DrawQueue it
+     * owns. Called by the radar once a battle has ended.
+     * <p>
+     * @since 3.1
+     */
+    public static void closeScope()
+    {
+        // Scoped DrawQueues may still be filled on the fill thread
+        DoubleBufferedDrawQueue.awaitAllFills();
+
+        int totalDisposed = 0;
+        final Map<String, int[]> peaks = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<WeakReference<DrawQueue>, BufferRecord>> iter
+                = refs.entrySet().iterator(); iter.hasNext();)
+        {
+            Map.Entry<WeakReference<DrawQueue>, BufferRecord> entry = iter.next();
+            final BufferRecord record = entry.getValue();
+            if (!record.scoped)
+            {
+                continue;
+            }
+
+            // Remember how large named DrawQueues got this battle
+            // Both buffers of a DoubleBufferedDrawQueue share a name
+            if (record.name != null)
+            {
+                final int[] peak = peaks.get(record.name);
+                if (peak == null)
+                {
+                    peaks.put(record.name, new int[]
+                    {
+                        record.peakVertices, record.peakShapes
+                    });
+                }
+                else
+                {
+                    peak[0] = Math.max(peak[0], record.peakVertices);
+                    peak[1] = Math.max(peak[1], record.peakShapes);
+                }
+            }
+
+            final DrawQueue queue = entry.getKey().get();
+            if (queue != null)
+            {
+                queue.releaseResources();
+            }
+
+            totalDisposed++;
+            record.release();
+            iter.remove();
+        }
+
+        for (Map.Entry<String, int[]> entry : peaks.entrySet())
+        {
+            CapacityStats.record(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+
+        scopeOpen = false;
+        CapacityStats.save();
+        if (totalDisposed > 0)
+        {
+            Log.debug("Disposed " + totalDisposed + " scoped DrawQueues");
+        }
+
+        Log.debug("DrawQueue uploads: " + numFullUploads + " full, "
+                + numPartialUploads + " partial, " + numSkippedUploads + " skipped");
+        resetUploadCounters();
+    }
+
+    /**
+     * Returns how many times a DrawQueue has uploaded its entire contents to
+     * the graphics card since the counters were last reset.
+     * <p>
+     * @return The number of full uploads.
+     * <p>
+     * @since 3.1
+     */
+    public static int getNumFullUploads()
+    {
+        return numFullUploads;
+    }
+
+    /**
+     * Returns how many times a DrawQueue with change tracking enabled only
+     * uploaded the parts of its contents that had changed since the counters
+     * were last reset.
+     * <p>
+     * @return The number of partial uploads.
+     * <p>
+     * @since 3.1
+     */
+    public static int getNumPartialUploads()
+    {
+        return numPartialUploads;
+    }
+
+    /**
+     * Returns how many times a DrawQueue with change tracking enabled skipped
+     * uploading entirely because its contents were unchanged since the
+     * counters were last reset.
+     * <p>
+     * @return The number of skipped uploads.
+     * <p>
+     * @since 3.1
+     */
+    public static int getNumSkippedUploads()
+    {
+        return numSkippedUploads;
+    }
+
+    /**
+     * Resets the upload counters. Called by the radar at the end of each
+     * battle, after logging them.
+     * <p>
+     * @since 3.1
+     */
+    public static void resetUploadCounters()
+    {
+        numFullUploads = 0;
+        numPartialUploads = 0;
+        numSkippedUploads = 0;
+    }
+
+    private static void recordUpload(int result)
+    {
+        switch (result)
+        {
+            case UploadTracker.RESULT_SKIPPED:
+                numSkippedUploads++;
+                break;
+            case UploadTracker.RESULT_PARTIAL:
+                numPartialUploads++;
+                break;
+            default:
+                numFullUploads++;
+        }
+    }
+
     /**
      * Creates a new auto-resizing DrawQueue with the draw flag
      * {@link GL15#GL_DYNAMIC_DRAW}.
@@ -149,220 +441,908 @@ public class DrawQueue
      */
     public DrawQueue(int initialCapacity, int drawFlag)
     {
+        this(initialCapacity, drawFlag, false);
+    }
+
+    /**
+     * Creates a new auto-resizing DrawQueue.
+     * <p>
+     * @param initialCapacity The initial maximum number of vertices this
+     *                        DrawQueue should hold, used for allocating native
+     *                        buffers of the proper size. If this capacity is
+     *                        exceeded new native buffers of the proper size
+     *                        will be allocated automatically. Resizing is a
+     *                        relatively expensive operation, so you should try
+     *                        to set this to the maximum number of vertices you
+     *                        expect the DrawQueue to hold over its lifetime.
+     * @param drawFlag        The buffer data stream type, only used if VBOs are
+     *                        active. Default is {@link GL15#GL_DYNAMIC_DRAW}.
+     * @param interleaved     If {@code true}, the position and color of each
+     *                        vertex will be packed together in a single buffer
+     *                        instead of two separate ones. This halves the
+     *                        number of buffer binds and uploads required.
+     * <p>
+     * @since 3.1
+     */
+    public DrawQueue(int initialCapacity, int drawFlag, boolean interleaved)
+    {
+        this.interleaved = interleaved;
+        this.drawFlag = drawFlag;
+        updateLayout();
+
+        record = new BufferRecord(scopeOpen);
+        refs.put(ref, record);
+
+        // Shared buffer space is allocated when this DrawQueue is finished
+        if (RadarSettings.usesSharedVertexBuffer())
+        {
+            arena = VertexArena.getInstance();
+            vertexAlloc = new VertexArena.Allocation();
+            colorAlloc = new VertexArena.Allocation();
+            vertexId = arena.getBufferId();
+            colorId = vertexId;
+        }
         // If using vertex buffer objects, allocate buffer space on the graphics card
-        if (RadarSettings.usesVertexBufferObjects())
+        else if (RadarSettings.usesVertexBufferObjects())
         {
-            final IntBuffer ids = BufferUtils.createIntBuffer(2);
+            final IntBuffer ids = BufferUtils.createIntBuffer(interleaved ? 1 : 2);
             glGenBuffers(ids);
             vertexId = ids.get(0);
-            colorId = ids.get(1);
-            refs.put(new WeakReference(this), ids);
+            colorId = (interleaved ? vertexId : ids.get(1));
+            record.addBuffers(ids);
+            arena = null;
+            vertexAlloc = null;
+            colorAlloc = null;
         }
         else
         {
             vertexId = 0;
             colorId = 0;
+            arena = null;
+            vertexAlloc = null;
+            colorAlloc = null;
         }
 
-        // Allocate native buffers
-        vertexMap = BufferUtils.createByteBuffer(initialCapacity * STRIDE_VERTEX);
-        colorMap = BufferUtils.createByteBuffer(initialCapacity * STRIDE_COLOR);
-        this.drawFlag = drawFlag;
-    }
-
-    private void resize(int newCapacity)
-    {
-        // Ensure that the data is ready for writing again
-        if (!finished)
+        // Static data is rarely rewritten, so there's no point in streaming it
+        if (RadarSettings.usesStreamingUploads() && arena == null
+                && drawFlag != GL_STATIC_DRAW)
         {
-            vertexMap.flip();
-            colorMap.flip();
+            vertexStream = new StreamingBuffer(vertexId, drawFlag);
+            colorStream = (interleaved ? null : new StreamingBuffer(colorId, drawFlag));
+            record.vertexStream = vertexStream;
+            record.colorStream = colorStream;
+        }
+        else
+        {
+            vertexStream = null;
+            colorStream = null;
         }
 
-        // Allocate new buffers of the required size and transfer the existing data to them
-        Log.debug("Resizing to " + newCapacity + " vertices");
-        vertexMap = BufferUtils.createByteBuffer(newCapacity * STRIDE_VERTEX).put(vertexMap);
-        colorMap = BufferUtils.createByteBuffer(newCapacity * STRIDE_COLOR).put(colorMap);
-        finished = false;
+        // Allocate native buffers
+        vertexMap = BufferUtils.createByteBuffer(initialCapacity * stride);
+        colorMap = (interleaved ? null
+                : BufferUtils.createByteBuffer(initialCapacity * STRIDE_COLOR));
+        updateRecordedSize();
+        setMaxBytes(RadarSettings.getMaxDrawQueueBytes());
     }
 
     /**
-     * Clears all data from the DrawQueue.
+     * Releases all buffers this DrawQueue has allocated on the graphics card.
+     * The DrawQueue can't be used again afterwards. Calling this more than
+     * once has no effect.
      * <p>
-     * @since 2.0
+     * DrawQueues owned by a scope are disposed automatically when the scope
+     * is closed, but disposing of them early is still allowed.
+     * <p>
+     * @since 3.1
      */
-    public void clear()
+    public void dispose()
     {
-        vertexMap.clear();
-        colorMap.clear();
-        batchMarkers.clear();
-        finished = false;
+        if (disposed)
+        {
+            return;
+        }
+
+        releaseResources();
+        record.release();
+        refs.remove(ref);
     }
 
     /**
-     * Checks whether this DrawQueue contains any vertex data yet.
-     *
-     * @return {@code true} if no vertices have been added to the DrawQueue,
-     *         {@code false} otherwise.
+     * Returns whether {@link DrawQueue#dispose()} has been called on this
+     * DrawQueue, either directly or by closing the scope that owned it.
      * <p>
-     * @since 2.0
+     * @return {@code true} if this DrawQueue has been disposed, {@code false}
+     *         otherwise.
+     * <p>
+     * @since 3.1
      */
-    public boolean isEmpty()
+    public boolean isDisposed()
     {
-        return vertexMap.limit() == 0;
+        return disposed;
     }
 
     /**
-     * Sets the color of any vertices added after this method is called.
+     * Names this DrawQueue, so its peak vertex and shape counts are recorded
+     * at the end of each battle. If a named DrawQueue was larger than this
+     * one's current capacity in previous battles, this DrawQueue is resized
+     * to match, and won't shrink below that size for the rest of the battle.
+     * Names should be unique, and should be set right after creating the
+     * DrawQueue. Only DrawQueues owned by a scope record stats.
      * <p>
-     * @param color    The color of the next shape. All vertices added until
-     *                 this method is called again will use this color.
-     * @param alphaMod Multiplies {@code color}'s alpha channel by this number
-     *                 (should be between 0 and 1). You will usually pass in
-     *                 {@link CommonRadar#getContactAlpha()} for contacts, or
-     *                 {@link CommonRadar#getRadarAlpha()} for UI elements. Also
-     *                 useful to avoid creating a new Color object every frame
-     *                 just to add fade effects.
+     * @param name A unique name for this DrawQueue, such as the class name of
+     *             the renderer that uses it.
      * <p>
-     * @since 2.0
+     * @since 3.1
      */
-    public void setNextColor(Color color, float alphaMod)
+    public void setName(String name)
     {
-        // Convert the color data to a byte array
-        currentColor[0] = (byte) color.getRed();
-        currentColor[1] = (byte) color.getGreen();
-        currentColor[2] = (byte) color.getBlue();
-        currentColor[3] = (byte) Math.round(color.getAlpha() * alphaMod);
+        record.name = name;
+
+        // Leave a little headroom over last time's peak
+        // Bounded DrawQueues never pre-size past their cap
+        int peakVertices = (int) (CapacityStats.getPeakVertices(name) * 1.1f);
+        if (maxBytes > 0)
+        {
+            peakVertices = Math.min(peakVertices, getMaxVertices());
+        }
+
+        final int peakShapes = CapacityStats.getPeakShapes(name);
+        minCapacity = peakVertices;
+        if (peakVertices > vertexMap.capacity() / stride)
+        {
+            Log.debug("Pre-sizing " + name + " to " + peakVertices + " vertices");
+            resize(peakVertices);
+        }
+
+        if (peakShapes > shapeEnds.length)
+        {
+            shapeEnds = Arrays.copyOf(shapeEnds, peakShapes);
+        }
     }
 
-    /**
-     * Sets the color of any vertices added after this method is called. Color
-     * values must be in the [0..1] range.
-     * <p>
-     * @param red   The red channel value of the color you wish to use (should
-     *              be between 0 and 1).
-     * @param green The green channel value of the color you wish to use (should
-     *              be between 0 and 1).
-     * @param blue  The blue channel value of the color you wish to use (should
-     *              be between 0 and 1).
-     * @param alpha The alpha channel value of the color you wish to use (should
-     *              be between 0 and 1).
-     * <p>
-     * @since 2.0
-     */
-    public void setNextColor(float red, float green, float blue, float alpha)
+    // Used to identify this DrawQueue in the log
+    private String getLogName()
     {
-        currentColor[0] = (byte) Math.round(red * 255f);
-        currentColor[1] = (byte) Math.round(green * 255f);
-        currentColor[2] = (byte) Math.round(blue * 255f);
-        currentColor[3] = (byte) Math.round(alpha * 255f);
+        return (record.name != null ? record.name : "unnamed DrawQueue");
     }
 
-    /**
-     * Sets the color of any vertices added after this method is called. Color
-     * values must be in the [0..255] range.
-     * <p>
-     * @param red   The red channel value of the color you wish to use (should
-     *              be between 0 and 255).
-     * @param green The green channel value of the color you wish to use (should
-     *              be between 0 and 255).
-     * @param blue  The blue channel value of the color you wish to use (should
-     *              be between 0 and 255).
-     * @param alpha The alpha channel value of the color you wish to use (should
-     *              be between 0 and 255).
-     * <p>
-     * @since 2.0
-     */
-    public void setNextColor(int red, int green, int blue, int alpha)
+    // Drops the byte cap when enabling a mode that needs all data in memory
+    private void removeMaxBytes(String reason)
     {
-        currentColor[0] = (byte) red;
-        currentColor[1] = (byte) green;
-        currentColor[2] = (byte) blue;
-        currentColor[3] = (byte) alpha;
+        // Data that was already flushed can't be indexed or tracked after the fact
+        if (numChunks > 0)
+        {
+            throw new RuntimeException("Can't enable " + reason + " on "
+                    + getLogName() + " after it has flushed chunks!");
+        }
+
+        if (maxBytes > 0)
+        {
+            Log.info("Removing byte cap from " + getLogName() + ", as bounded mode"
+                    + " can't be combined with " + reason);
+            maxBytes = 0;
+        }
     }
 
     /**
-     * Add vertex data to the current shape. If called on a finished DrawQueue,
-     * this will reset it and start a new set of vertex data.
-     * <p>
-     * @param vertices The vertex x,y pairs to be added.
+     * Returns the name of this DrawQueue, if one was set.
      * <p>
-     * @return {@code true} if the DrawQueue had to resize to fit
-     *         {@code vertices}, {@code false} otherwise.
+     * @return This DrawQueue's name, or {@code null} if it hasn't been named.
      * <p>
-     * @since 2.0
+     * @since 3.1
      */
-    public boolean addVertices(float[] vertices)
+    public String getName()
     {
-        // Ensure the vertex array has an even number of floats
-        if ((vertices.length & 1) != 0)
-        {
-            throw new RuntimeException("Vertices must be added in pairs!");
-        }
+        return record.name;
+    }
 
-        // If this is a new set of data, clear out the old data first
-        if (finished)
+    // Releases resources the BufferRecord doesn't know about and marks this as disposed
+    private void releaseResources()
+    {
+        if (arena != null)
         {
-            clear();
+            arena.free(vertexAlloc);
+            arena.free(colorAlloc);
         }
 
-        // Ensure we have space remaining (and resize if we don't)
-        boolean resized = false;
-        final int requiredCapacity = vertexMap.position() + (vertices.length * 4);
-        if (requiredCapacity > vertexMap.capacity())
+        releaseIndices();
+
+        // Empty buffers are left behind so stray calls fail safely
+        discardBuffer(vertexMap);
+        vertexMap = BufferUtils.createByteBuffer(0);
+        if (colorMap != null)
         {
-            // Resize to 150% of the newly required capacity
-            // Odd multiplier is to adjust for byte size and vertex pairs
-            resize((int) (requiredCapacity * .1875));
-            resized = true;
+            NativeBuffers.free(colorMap);
+            colorMap = BufferUtils.createByteBuffer(0);
         }
+        disposed = true;
+    }
 
-        // Individual puts are much faster, but won't check limitations on bounds
-        for (int x = 0; x < vertices.length; x++)
+    private void checkDisposed()
+    {
+        if (disposed)
         {
-            vertexMap.putFloat(vertices[x]);
-
-            // Keep color map updated
-            if ((x & 1) == 0)
-            {
-                for (int y = 0; y < currentColor.length; y++)
-                {
-                    colorMap.put(currentColor[y]);
-                }
-            }
+            throw new RuntimeException("DrawQueue has already been disposed!");
         }
+    }
 
-        finished = false;
-        return resized;
+    // Keeps the size reported by the leak detector up to date
+    private void updateRecordedSize()
+    {
+        record.bytes = vertexMap.capacity()
+                + (colorMap == null ? 0 : colorMap.capacity())
+                + (indexBytes == null ? 0 : indexBytes.capacity())
+                + (shapeFirstBytes == null ? 0 : shapeFirstBytes.capacity() * 2);
     }
 
     /**
-     * Add vertex data to the current shape. If called on a finished DrawQueue,
-     * this will reset it and start a new set of vertex data.
+     * Returns whether this DrawQueue packs position and color data into a
+     * single interleaved buffer.
      * <p>
-     * @param vertices The vertices to be added.
+     * @return {@code true} if this DrawQueue uses an interleaved buffer,
+     *         {@code false} if it uses separate vertex and color buffers.
      * <p>
-     * @return {@code true} if the DrawQueue had to resize to fit
-     *         {@code vertices}, {@code false} otherwise.
+     * @since 3.1
+     */
+    public boolean isInterleaved()
+    {
+        return interleaved;
+    }
+
+    /**
+     * Sets whether this DrawQueue should store a single color per shape instead
+     * of a color for every vertex. When enabled each shape is drawn entirely in
+     * the color that was active when {@link DrawQueue#finishShape(int)} was
+     * called for it, and consecutive shapes with the same color and draw mode
+     * are drawn together. This shrinks uploads by a third, but means you must
+     * finish a shape before changing colors. Disabled by default.
      * <p>
-     * @since 2.0
+     * This can only be changed while the DrawQueue is empty.
+     * <p>
+     * @param flatColors Whether to use a single color per shape.
+     * <p>
+     * @since 3.1
      */
-    public boolean addVertices(List<Vector2f> vertices)
+    public void setFlatColors(boolean flatColors)
     {
-        // Convert to a raw float array and pass to the real implementation
-        // Lazy and inefficient, yes, but much easier to maintain
-        float[] rawVertices = new float[vertices.size() * 2];
-        for (int x = 0; x < vertices.size() * 2; x += 2)
+        if (vertexMap.position() > 0 || numShapes > 0)
         {
-            final Vector2f vertex = vertices.get(x / 2);
-            rawVertices[x] = vertex.x;
-            rawVertices[x + 1] = vertex.y;
+            throw new RuntimeException("Can't change color mode of a DrawQueue with data in it!");
         }
 
-        return addVertices(rawVertices);
+        this.flatColors = flatColors;
+        changeLayout();
     }
 
-    /**
+    // Recalculates the size of each vertex after the color or position format changes
+    private void updateLayout()
+    {
+        vertexStride = (compactVertices ? STRIDE_COMPACT_VERTEX : STRIDE_VERTEX);
+        if (interleaved && !flatColors)
+        {
+            vertexFormat = (compactVertices ? VertexFormat.POSITION_2S_COLOR_4UB
+                    : VertexFormat.POSITION_2F_COLOR_4UB);
+        }
+        else
+        {
+            vertexFormat = (compactVertices ? VertexFormat.POSITION_2S
+                    : VertexFormat.POSITION_2F);
+        }
+
+        stride = vertexFormat.getStride();
+        usesColorBuffer = !interleaved && !flatColors;
+    }
+
+    // Reallocates the (empty) native buffers so they hold the same number of
+    // vertices as before in the new vertex format, and frees the separate
+    // color buffer if the new format doesn't read it
+    private void changeLayout()
+    {
+        final int capacity = vertexMap.capacity() / stride;
+        updateLayout();
+        if (vertexMap.capacity() != capacity * stride)
+        {
+            discardBuffer(vertexMap);
+            vertexMap = BufferUtils.createByteBuffer(capacity * stride);
+        }
+
+        if (!usesColorBuffer && colorMap != null)
+        {
+            discardBuffer(colorMap);
+            colorMap = null;
+        }
+        else if (usesColorBuffer && colorMap == null)
+        {
+            colorMap = BufferUtils.createByteBuffer(capacity * STRIDE_COLOR);
+        }
+
+        updateRecordedSize();
+    }
+
+    /**
+     * Sets whether this DrawQueue should store vertex positions as 16-bit
+     * fixed-point numbers relative to an origin instead of as floats, halving
+     * the memory and bandwidth used by positions. The origin and precision are
+     * undone with the modelview matrix when drawing, so vertices are still
+     * added using normal screen coordinates.
+     * <p>
+     * Each extra bit of sub-pixel precision halves the usable range around
+     * the origin; with the default of two bits (quarter-pixel precision),
+     * vertices must lie within 8,191 pixels of it. Vertices outside of the
+     * range are clamped to its edge.
+     * <p>
+     * This can only be changed while the DrawQueue is empty.
+     * <p>
+     * @param compact       Whether to store positions in compact form.
+     * @param originX       The x coordinate all positions are stored relative
+     *                      to, usually the center of the radar.
+     * @param originY       The y coordinate all positions are stored relative
+     *                      to, usually the center of the radar.
+     * @param subPixelBits  How many bits of each coordinate are used for
+     *                      sub-pixel precision (between 0 and 8).
+     * <p>
+     * @since 3.1
+     */
+    public void setCompactVertices(boolean compact, float originX, float originY,
+            int subPixelBits)
+    {
+        if (vertexMap.position() > 0 || numShapes > 0)
+        {
+            throw new RuntimeException("Can't change vertex format of a DrawQueue with data in it!");
+        }
+
+        if (subPixelBits < 0 || subPixelBits > 8)
+        {
+            throw new RuntimeException("Sub-pixel precision must be between 0 and 8 bits!");
+        }
+
+        compactVertices = compact;
+        compactOriginX = originX;
+        compactOriginY = originY;
+        compactScale = (1 << subPixelBits);
+        changeLayout();
+    }
+
+    /**
+     * Returns whether this DrawQueue stores vertex positions in compact form.
+     * <p>
+     * @return {@code true} if positions are stored as fixed-point shorts,
+     *         {@code false} if they are stored as floats.
+     * <p>
+     * @since 3.1
+     */
+    public boolean usesCompactVertices()
+    {
+        return compactVertices;
+    }
+
+    /**
+     * Returns whether this DrawQueue stores a single color per shape.
+     * <p>
+     * @return {@code true} if flat colors are enabled, {@code false} if every
+     *         vertex has its own color.
+     * <p>
+     * @since 3.1
+     */
+    public boolean usesFlatColors()
+    {
+        return flatColors;
+    }
+
+    private void resize(int newCapacity)
+    {
+        // Ensure that the data is ready for writing again
+        if (!finished)
+        {
+            vertexMap.flip();
+            if (usesColorBuffer)
+            {
+                colorMap.flip();
+            }
+        }
+
+        // Allocate new buffers of the required size and transfer the existing data to them
+        Log.debug("Resizing " + (record.name == null ? "" : record.name + " ")
+                + "to " + newCapacity + " vertices");
+        final ByteBuffer oldVertices = vertexMap, oldColors = colorMap;
+        vertexMap = BufferUtils.createByteBuffer(newCapacity * stride).put(oldVertices);
+        discardBuffer(oldVertices);
+        if (usesColorBuffer)
+        {
+            colorMap = BufferUtils.createByteBuffer(newCapacity * STRIDE_COLOR).put(oldColors);
+            discardBuffer(oldColors);
+        }
+        updateRecordedSize();
+        finished = false;
+    }
+
+    // Frees a replaced native buffer right away rather than waiting for the GC
+    private void discardBuffer(ByteBuffer buffer)
+    {
+        NativeBuffers.free(buffer);
+    }
+
+    // Ensures there is room for numVertices more vertices, resizing if there isn't
+    private boolean ensureCapacity(int numVertices)
+    {
+        int requiredCapacity = (vertexMap.position() / stride) + numVertices;
+        if (requiredCapacity * stride <= vertexMap.capacity())
+        {
+            return false;
+        }
+
+        // Resize to 150% of the newly required capacity
+        if (maxBytes <= 0)
+        {
+            resize((int) (requiredCapacity * 1.5f));
+            return true;
+        }
+
+        // In bounded mode, send the finished shapes to the card instead of growing past the cap
+        final int maxVertices = getMaxVertices();
+        if (requiredCapacity > maxVertices && flushChunk())
+        {
+            requiredCapacity = (vertexMap.position() / stride) + numVertices;
+            if (requiredCapacity * stride <= vertexMap.capacity())
+            {
+                return false;
+            }
+        }
+
+        // Only a single shape too large for the cap can grow the buffers past it
+        resize(Math.max(requiredCapacity, Math.min((int) (requiredCapacity * 1.5f), maxVertices)));
+        return true;
+    }
+
+    // Returns how many vertices fit in the byte cap, counting both buffers
+    private int getMaxVertices()
+    {
+        return maxBytes / (usesColorBuffer ? stride + STRIDE_COLOR : stride);
+    }
+
+    // Uploads every finished shape to a chunk buffer of its own, then moves the
+    // current unfinished shape to the start of the native buffer(s)
+    private boolean flushChunk()
+    {
+        final int shapeStart = (numShapes == 0 ? 0 : shapeEnds[numShapes - 1]),
+                numFlushed = shapeStart - chunkBase;
+        if (numFlushed <= 0)
+        {
+            return false;
+        }
+
+        if (numChunks == chunkVertexIds.length)
+        {
+            final int newLength = numChunks + 2;
+            chunkEndBatches = Arrays.copyOf(chunkEndBatches, newLength);
+            chunkBaseVertices = Arrays.copyOf(chunkBaseVertices, newLength);
+            chunkVertexIds = Arrays.copyOf(chunkVertexIds, newLength);
+            chunkColorIds = Arrays.copyOf(chunkColorIds, newLength);
+            for (int x = numChunks; x < newLength; x++)
+            {
+                final IntBuffer ids = BufferUtils.createIntBuffer(interleaved ? 1 : 2);
+                glGenBuffers(ids);
+                chunkVertexIds[x] = ids.get(0);
+                chunkColorIds[x] = (interleaved ? 0 : ids.get(1));
+                record.addBuffers(ids);
+            }
+        }
+
+        uploadChunk(chunkVertexIds[numChunks], vertexMap, numFlushed * stride);
+        if (usesColorBuffer)
+        {
+            uploadChunk(chunkColorIds[numChunks], colorMap, numFlushed * STRIDE_COLOR);
+        }
+
+        chunkEndBatches[numChunks] = numBatches;
+        chunkBaseVertices[numChunks] = chunkBase;
+        numChunks++;
+        chunkBase = shapeStart;
+        recordUpload(UploadTracker.RESULT_FULL);
+        return true;
+    }
+
+    // Uploads the first numBytes bytes of buffer and moves the rest to its start
+    private void uploadChunk(int bufferId, ByteBuffer buffer, int numBytes)
+    {
+        final int end = buffer.position();
+        buffer.position(0);
+        buffer.limit(numBytes);
+        glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+        glBufferData(GL_ARRAY_BUFFER, buffer, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        buffer.limit(end);
+        buffer.position(numBytes);
+        buffer.compact();
+    }
+
+    /**
+     * Caps how much native memory this DrawQueue's vertex and color data may
+     * use. Once a bounded DrawQueue is full, every shape finished so far is
+     * uploaded to the graphics card in a chunk and the native memory is
+     * reused, instead of growing. The only exception is a single shape too
+     * large for the cap on its own. Defaults to
+     * {@link RadarSettings#getMaxDrawQueueBytes()}.
+     * <p>
+     * As flushing a chunk makes OpenGL calls, a bounded DrawQueue must be
+     * filled on the rendering thread. Bounded mode can't be combined with
+     * indexed drawing or change tracking, which both need all of the data in
+     * main memory at once. Enabling either of those removes the cap (or
+     * throws an exception if chunks were already flushed since the last
+     * {@link DrawQueue#clear()}), and a cap set while either is enabled is
+     * ignored; both cases are logged. The cap is ignored if VBOs are
+     * disabled, as there's nowhere to flush to.
+     * <p>
+     * This can only be changed while the DrawQueue is empty.
+     * <p>
+     * @param maxBytes The most native memory this DrawQueue may use, in
+     *                 bytes, or 0 to let it grow without limit.
+     * <p>
+     * @since 3.1
+     */
+    public void setMaxBytes(int maxBytes)
+    {
+        if (vertexMap.position() > 0 || numShapes > 0)
+        {
+            throw new RuntimeException("Can't change byte cap of a DrawQueue with data in it!");
+        }
+
+        if (maxBytes > 0 && (indexMode != INDEX_NONE || vertexTracker != null))
+        {
+            Log.info("Ignoring byte cap for " + getLogName() + ", as bounded mode"
+                    + " can't be combined with indexed drawing or change tracking");
+            maxBytes = 0;
+        }
+
+        this.maxBytes = (RadarSettings.usesVertexBufferObjects() ? Math.max(0, maxBytes) : 0);
+        if (this.maxBytes == 0)
+        {
+            return;
+        }
+
+        // Trim existing buffers down to the cap right away
+        final int maxVertices = Math.max(1, getMaxVertices());
+        if (vertexMap.capacity() / stride > maxVertices)
+        {
+            discardBuffer(vertexMap);
+            vertexMap = BufferUtils.createByteBuffer(maxVertices * stride);
+            if (usesColorBuffer)
+            {
+                discardBuffer(colorMap);
+                colorMap = BufferUtils.createByteBuffer(maxVertices * STRIDE_COLOR);
+            }
+            updateRecordedSize();
+        }
+    }
+
+    /**
+     * Returns the cap on how much native memory this DrawQueue may use.
+     * <p>
+     * @return The byte cap set by {@link DrawQueue#setMaxBytes(int)}, or 0 if
+     *         this DrawQueue isn't bounded.
+     * <p>
+     * @since 3.1
+     */
+    public int getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    // Writes a single vertex and the current color into the native buffer(s)
+    // Individual puts are much faster, but won't check limitations on bounds
+    private void writeVertex(float x, float y)
+    {
+        if (compactVertices)
+        {
+            vertexMap.putShort(toCompact(x - compactOriginX))
+                    .putShort(toCompact(y - compactOriginY));
+        }
+        else
+        {
+            vertexMap.putFloat(x).putFloat(y);
+        }
+
+        if (flatColors)
+        {
+            return;
+        }
+
+        final ByteBuffer colorDest = (interleaved ? vertexMap : colorMap);
+        colorDest.put(currentColor[0]).put(currentColor[1])
+                .put(currentColor[2]).put(currentColor[3]);
+    }
+
+    // Converts an offset from the origin into a clamped fixed-point coordinate
+    private short toCompact(float offset)
+    {
+        return (short) Math.round(Math.max(MIN_COMPACT,
+                Math.min(MAX_COMPACT, offset * compactScale)));
+    }
+
+    // Packs the current color into a single int for comparing batch colors
+    private int getPackedColor()
+    {
+        return ((currentColor[0] & 0xFF) << 24) | ((currentColor[1] & 0xFF) << 16)
+                | ((currentColor[2] & 0xFF) << 8) | (currentColor[3] & 0xFF);
+    }
+
+    /**
+     * Clears all data from the DrawQueue.
+     * <p>
+     * @since 2.0
+     */
+    public void clear()
+    {
+        // Shrinking is done here as there's no data to copy to the new buffers
+        if (shrinkTo > 0)
+        {
+            Log.debug("Shrinking " + (record.name == null ? "" : record.name + " ")
+                    + "to " + shrinkTo + " vertices after sustained low usage");
+            discardBuffer(vertexMap);
+            vertexMap = BufferUtils.createByteBuffer(shrinkTo * stride);
+            if (usesColorBuffer)
+            {
+                discardBuffer(colorMap);
+                colorMap = BufferUtils.createByteBuffer(shrinkTo * STRIDE_COLOR);
+            }
+            shrinkTo = 0;
+            updateRecordedSize();
+        }
+
+        vertexMap.clear();
+        if (usesColorBuffer)
+        {
+            colorMap.clear();
+        }
+        // Shared buffer regions are kept until finish() replaces them
+        numBatches = 0;
+        numShapes = 0;
+        numChunks = 0;
+        chunkBase = 0;
+        finished = false;
+    }
+
+    /**
+     * Checks whether this DrawQueue contains any vertex data yet.
+     *
+     * @return {@code true} if no vertices have been added to the DrawQueue,
+     *         {@code false} otherwise.
+     * <p>
+     * @since 2.0
+     */
+    public boolean isEmpty()
+    {
+        return vertexMap.limit() == 0 && numChunks == 0;
+    }
+
+    /**
+     * Sets the color of any vertices added after this method is called.
+     * <p>
+     * @param color    The color of the next shape. All vertices added until
+     *                 this method is called again will use this color.
+     * @param alphaMod Multiplies {@code color}'s alpha channel by this number
+     *                 (should be between 0 and 1). You will usually pass in
+     *                 {@link CommonRadar#getContactAlpha()} for contacts, or
+     *                 {@link CommonRadar#getRadarAlpha()} for UI elements. Also
+     *                 useful to avoid creating a new Color object every frame
+     *                 just to add fade effects.
+     * <p>
+     * @since 2.0
+     */
+    public void setNextColor(Color color, float alphaMod)
+    {
+        // Convert the color data to a byte array
+        currentColor[0] = (byte) color.getRed();
+        currentColor[1] = (byte) color.getGreen();
+        currentColor[2] = (byte) color.getBlue();
+        currentColor[3] = (byte) Math.round(color.getAlpha() * alphaMod);
+    }
+
+    /**
+     * Sets the color of any vertices added after this method is called. Color
+     * values must be in the [0..1] range.
+     * <p>
+     * @param red   The red channel value of the color you wish to use (should
+     *              be between 0 and 1).
+     * @param green The green channel value of the color you wish to use (should
+     *              be between 0 and 1).
+     * @param blue  The blue channel value of the color you wish to use (should
+     *              be between 0 and 1).
+     * @param alpha The alpha channel value of the color you wish to use (should
+     *              be between 0 and 1).
+     * <p>
+     * @since 2.0
+     */
+    public void setNextColor(float red, float green, float blue, float alpha)
+    {
+        currentColor[0] = (byte) Math.round(red * 255f);
+        currentColor[1] = (byte) Math.round(green * 255f);
+        currentColor[2] = (byte) Math.round(blue * 255f);
+        currentColor[3] = (byte) Math.round(alpha * 255f);
+    }
+
+    /**
+     * Sets the color of any vertices added after this method is called. Color
+     * values must be in the [0..255] range.
+     * <p>
+     * @param red   The red channel value of the color you wish to use (should
+     *              be between 0 and 255).
+     * @param green The green channel value of the color you wish to use (should
+     *              be between 0 and 255).
+     * @param blue  The blue channel value of the color you wish to use (should
+     *              be between 0 and 255).
+     * @param alpha The alpha channel value of the color you wish to use (should
+     *              be between 0 and 255).
+     * <p>
+     * @since 2.0
+     */
+    public void setNextColor(int red, int green, int blue, int alpha)
+    {
+        currentColor[0] = (byte) red;
+        currentColor[1] = (byte) green;
+        currentColor[2] = (byte) blue;
+        currentColor[3] = (byte) alpha;
+    }
+
+    /**
+     * Add vertex data to the current shape. If called on a finished DrawQueue,
+     * this will reset it and start a new set of vertex data.
+     * <p>
+     * @param vertices The vertex x,y pairs to be added.
+     * <p>
+     * @return {@code true} if the DrawQueue had to resize to fit
+     *         {@code vertices}, {@code false} otherwise.
+     * <p>
+     * @since 2.0
+     */
+    public boolean addVertices(float[] vertices)
+    {
+        return addVertices(vertices, 0, vertices.length);
+    }
+
+    /**
+     * Add part of an array of vertex data to the current shape. Useful for
+     * reusing a single scratch array for multiple shapes. If called on a
+     * finished DrawQueue, this will reset it and start a new set of vertex
+     * data.
+     * <p>
+     * @param vertices The array containing the vertex x,y pairs to be added.
+     * @param offset   The index of the first float in {@code vertices} to add.
+     * @param length   How many floats to add (must be an even number).
+     * <p>
+     * @return {@code true} if the DrawQueue had to resize to fit
+     *         {@code vertices}, {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean addVertices(float[] vertices, int offset, int length)
+    {
+        // Ensure the vertex array has an even number of floats
+        if ((length & 1) != 0)
+        {
+            throw new RuntimeException("Vertices must be added in pairs!");
+        }
+
+        if (offset < 0 || offset + length > vertices.length)
+        {
+            throw new RuntimeException("Range " + offset + "-" + (offset + length)
+                    + " is outside of vertex array of length " + vertices.length);
+        }
+
+        // Ensure we have space remaining (and resize if we don't)
+        final boolean resized = reserveVertices(length / 2);
+        for (int x = offset; x < offset + length; x += 2)
+        {
+            writeVertex(vertices[x], vertices[x + 1]);
+        }
+
+        return resized;
+    }
+
+    /**
+     * Add vertex data to the current shape. All floats between
+     * {@code vertices}' position and limit will be added, and its position
+     * will be left unchanged. If called on a finished DrawQueue, this will
+     * reset it and start a new set of vertex data.
+     * <p>
+     * @param vertices The vertex x,y pairs to be added.
+     * <p>
+     * @return {@code true} if the DrawQueue had to resize to fit
+     *         {@code vertices}, {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean addVertices(FloatBuffer vertices)
+    {
+        // Ensure the vertex buffer has an even number of floats
+        final int start = vertices.position(), end = vertices.limit();
+        if (((end - start) & 1) != 0)
+        {
+            throw new RuntimeException("Vertices must be added in pairs!");
+        }
+
+        // Absolute gets, so the source buffer's position isn't touched
+        final boolean resized = reserveVertices((end - start) / 2);
+        for (int x = start; x < end; x += 2)
+        {
+            writeVertex(vertices.get(x), vertices.get(x + 1));
+        }
+
+        return resized;
+    }
+
+    /**
+     * Add vertex data to the current shape. If called on a finished DrawQueue,
+     * this will reset it and start a new set of vertex data.
+     * <p>
+     * @param vertices The vertices to be added.
+     * <p>
+     * @return {@code true} if the DrawQueue had to resize to fit
+     *         {@code vertices}, {@code false} otherwise.
+     * <p>
+     * @since 2.0
+     */
+    public boolean addVertices(List<Vector2f> vertices)
+    {
+        final boolean resized = reserveVertices(vertices.size());
+        for (int x = 0; x < vertices.size(); x++)
+        {
+            final Vector2f vertex = vertices.get(x);
+            writeVertex(vertex.x, vertex.y);
+        }
+
+        return resized;
+    }
+
+    /**
+     * Ensures there is room for at least {@code numVertices} more vertices in
+     * the current shape, resizing the DrawQueue if there isn't. Call this once
+     * per shape before writing its vertices with
+     * {@link DrawQueue#put(float, float)}. If called on a finished DrawQueue,
+     * this will reset it and start a new set of vertex data.
+     * <p>
+     * @param numVertices How many vertices you are about to add.
+     * <p>
+     * @return {@code true} if the DrawQueue had to resize to fit
+     *         {@code numVertices} more vertices, {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean reserveVertices(int numVertices)
+    {
+        // If this is a new set of data, clear out the old data first
+        if (finished)
+        {
+            clear();
+        }
+
+        finished = false;
+        return ensureCapacity(numVertices);
+    }
+
+    /**
+     * Writes a single vertex straight into the DrawQueue's native buffer,
+     * using the color set by the last call to {@code setNextColor()}. Unlike
+     * {@link DrawQueue#addVertex(float, float)}, no capacity check is
+     * performed; you <i>must</i> reserve space for every vertex you put with
+     * {@link DrawQueue#reserveVertices(int)} first.
+     * <p>
+     * @param x The x coordinate of the vertex to be added.
+     * @param y The y coordinate of the vertex to be added.
+     * <p>
+     * @return This DrawQueue, for chaining calls.
+     * <p>
+     * @since 3.1
+     */
+    public DrawQueue put(float x, float y)
+    {
+        writeVertex(x, y);
+        return this;
+    }
+
+    /**
      * Add a single vertex to the current shape. If called on a finished
      * DrawQueue, this will reset it and start a new set of vertex data.
      * <p>
@@ -376,64 +1356,502 @@ public class DrawQueue
      */
     public boolean addVertex(float x, float y)
     {
-        // If this is a new set of data, clear out the old data first
-        if (finished)
+        // If this is a new set of data, clear out the old data first
+        if (finished)
+        {
+            clear();
+        }
+
+        // Ensure we have space remaining (and resize if we don't)
+        final boolean resized = ensureCapacity(1);
+
+        // Add vertex and color data
+        writeVertex(x, y);
+
+        finished = false;
+        return resized;
+    }
+
+    /**
+     * Add a single vertex to the current shape. If called on a finished
+     * DrawQueue, this will reset it and start a new set of vertex data.
+     * <p>
+     * @param vertex The vertex to be added.
+     * <p>
+     * @return {@code true} if the DrawQueue had to resize to fit
+     *         {@code vertex}, {@code false} otherwise.
+     * <p>
+     * @since 2.0
+     */
+    public boolean addVertex(Vector2f vertex)
+    {
+        return addVertex(vertex.x, vertex.y);
+    }
+
+    /**
+     * Finalizes the current shape. You <i>must</i> call this after every shape,
+     * otherwise rendering errors will occur.
+     * <p>
+     * @param shapeDrawMode The draw mode for this shape (what you would
+     *                      normally call with {@link GL11#glBegin(int)}).
+     * <p>
+     * @since 2.0
+     */
+    public void finishShape(int shapeDrawMode)
+    {
+        final int start = (numShapes == 0 ? 0 : shapeEnds[numShapes - 1]);
+        if (chunkBase + vertexMap.position() / stride == start)
+        {
+            return;
+        }
+
+        // Rewrite fans, strips and loops as independent primitives so they can be merged
+        if (convertToLists && !isListMode(shapeDrawMode))
+        {
+            shapeDrawMode = convertShape(shapeDrawMode, start);
+        }
+
+        // Keep track of the start/end indices of each shape and how it should be drawn
+        final int end = chunkBase + vertexMap.position() / stride;
+        if (numShapes == shapeEnds.length)
+        {
+            shapeEnds = Arrays.copyOf(shapeEnds, numShapes * 2);
+        }
+        shapeEnds[numShapes++] = end;
+
+        // Shapes using the same draw mode as the previous batch are merged with it if
+        // they can be drawn together (always for lists, only when indexed otherwise)
+        // Flat-colored shapes must also share the previous batch's color
+        // Batches that were already flushed in a chunk can't be extended
+        final int color = (flatColors ? getPackedColor() : 0);
+        final int firstOpenBatch = (numChunks == 0 ? 0 : chunkEndBatches[numChunks - 1]);
+        if (numBatches > firstOpenBatch && batchModes[numBatches - 1] == shapeDrawMode
+                && (isListMode(shapeDrawMode) || indexMode != INDEX_NONE)
+                && batchColors[numBatches - 1] == color)
+        {
+            batchEnds[numBatches - 1] = end;
+            return;
+        }
+
+        if (numBatches == batchModes.length)
+        {
+            batchModes = Arrays.copyOf(batchModes, numBatches * 2);
+            batchEnds = Arrays.copyOf(batchEnds, numBatches * 2);
+            batchFirstShapes = Arrays.copyOf(batchFirstShapes, numBatches * 2);
+            batchColors = Arrays.copyOf(batchColors, numBatches * 2);
+        }
+
+        batchModes[numBatches] = shapeDrawMode;
+        batchEnds[numBatches] = end;
+        batchFirstShapes[numBatches] = numShapes - 1;
+        batchColors[numBatches] = color;
+        numBatches++;
+    }
+
+    /**
+     * Sets whether runs of shapes sharing a connected draw mode (such as
+     * {@link GL11#GL_TRIANGLE_FAN} or {@link GL11#GL_LINE_STRIP}) should be
+     * submitted with a single draw call. This uses an index buffer with
+     * primitive restart if the user's card supports it (OpenGL 3.1 or
+     * {@code GL_NV_primitive_restart}), or {@code glMultiDrawArrays()}
+     * otherwise. Shapes will be drawn individually if neither is available.
+     * <p>
+     * Unlike {@link DrawQueue#setConvertToLists(boolean)}, no extra vertices
+     * are generated. This should be called before adding any shapes.
+     * <p>
+     * @param indexed Whether to submit runs of same-mode shapes at once.
+     * <p>
+     * @since 3.1
+     */
+    public void setIndexedDrawing(boolean indexed)
+    {
+        if (!indexed)
+        {
+            indexMode = INDEX_NONE;
+            releaseIndices();
+            return;
+        }
+
+        // Indices cover the whole DrawQueue, so it can't be flushed in chunks
+        removeMaxBytes("indexed drawing");
+
+        final ContextCapabilities caps = GLContext.getCapabilities();
+        if (caps.OpenGL31)
+        {
+            indexMode = INDEX_RESTART;
+        }
+        else if (caps.GL_NV_primitive_restart)
+        {
+            indexMode = INDEX_RESTART_NV;
+        }
+        else if (caps.OpenGL14)
+        {
+            indexMode = INDEX_MULTIDRAW;
+        }
+        else
+        {
+            Log.debug("Indexed drawing not supported, shapes will be drawn individually");
+            indexMode = INDEX_NONE;
+            return;
+        }
+
+        // Index data is stored on the card alongside the vertex data
+        if (indexId == 0 && RadarSettings.usesVertexBufferObjects()
+                && indexMode != INDEX_MULTIDRAW)
+        {
+            final IntBuffer ids = BufferUtils.createIntBuffer(1);
+            glGenBuffers(ids);
+            indexId = ids.get(0);
+            record.addBuffers(ids);
+        }
+    }
+
+    // Frees the native index data, which finish() rebuilds if it's needed again
+    private void releaseIndices()
+    {
+        discardBuffer(indexBytes);
+        discardBuffer(shapeFirstBytes);
+        discardBuffer(shapeCountBytes);
+        indexBytes = null;
+        shapeFirstBytes = null;
+        shapeCountBytes = null;
+        indexMap = null;
+        shapeFirsts = null;
+        shapeCounts = null;
+        updateRecordedSize();
+    }
+
+    // Returns the index of the first shape after the end of batch
+    private int getBatchShapesEnd(int batch)
+    {
+        return (batch + 1 < numBatches ? batchFirstShapes[batch + 1] : numShapes);
+    }
+
+    // Builds the index buffer (or first/count lists) used to draw each batch at once
+    private void buildIndices()
+    {
+        if (batchIndexOffsets.length < numBatches)
+        {
+            batchIndexOffsets = new int[batchModes.length];
+            batchIndexCounts = new int[batchModes.length];
+        }
+
+        // Multi-draw just needs the first vertex and vertex count of each shape
+        if (indexMode == INDEX_MULTIDRAW)
+        {
+            if (shapeFirsts == null || shapeFirsts.capacity() < numShapes)
+            {
+                discardBuffer(shapeFirstBytes);
+                discardBuffer(shapeCountBytes);
+                shapeFirstBytes = BufferUtils.createByteBuffer(shapeEnds.length * 4);
+                shapeCountBytes = BufferUtils.createByteBuffer(shapeEnds.length * 4);
+                shapeFirsts = shapeFirstBytes.asIntBuffer();
+                shapeCounts = shapeCountBytes.asIntBuffer();
+                updateRecordedSize();
+            }
+
+            shapeFirsts.clear();
+            shapeCounts.clear();
+            int lastIndex = 0;
+            for (int x = 0; x < numShapes; x++)
+            {
+                shapeFirsts.put(lastIndex);
+                shapeCounts.put(shapeEnds[x] - lastIndex);
+                lastIndex = shapeEnds[x];
+            }
+
+            return;
+        }
+
+        // Every vertex needs an index, plus a restart index between each shape
+        final int numVertices = vertexMap.limit() / stride;
+        final int requiredCapacity = numVertices + numShapes;
+        if (indexMap == null || indexMap.capacity() < requiredCapacity)
+        {
+            discardBuffer(indexBytes);
+            indexBytes = BufferUtils.createByteBuffer((int) (requiredCapacity * 1.5f) * 4);
+            indexMap = indexBytes.asIntBuffer();
+            updateRecordedSize();
+        }
+
+        indexMap.clear();
+        for (int x = 0; x < numBatches; x++)
+        {
+            batchIndexOffsets[x] = indexMap.position();
+            final int firstShape = batchFirstShapes[x], lastShape = getBatchShapesEnd(x);
+            if (isListMode(batchModes[x]) || lastShape - firstShape < 2)
+            {
+                batchIndexCounts[x] = 0;
+                continue;
+            }
+
+            int vertex = (firstShape == 0 ? 0 : shapeEnds[firstShape - 1]);
+            for (int shape = firstShape; shape < lastShape; shape++)
+            {
+                if (shape != firstShape)
+                {
+                    indexMap.put(RESTART_INDEX);
+                }
+
+                for (; vertex < shapeEnds[shape]; vertex++)
+                {
+                    indexMap.put(vertex);
+                }
+            }
+
+            batchIndexCounts[x] = indexMap.position() - batchIndexOffsets[x];
+        }
+
+        indexMap.flip();
+        if (indexId != 0)
+        {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexId);
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexMap, drawFlag);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+    }
+
+    // Draws each shape in a batch of connected shapes with its own draw call
+    // Shape ends count from the start of the DrawQueue, so base is the first
+    // vertex of the chunk (or main buffer) the array pointers are set to
+    private void drawShapesIndividually(int batch, int base)
+    {
+        final int firstShape = batchFirstShapes[batch];
+        int lastIndex = (firstShape == 0 ? 0 : shapeEnds[firstShape - 1]);
+        for (int shape = firstShape; shape < getBatchShapesEnd(batch); shape++)
         {
-            clear();
+            glDrawArrays(batchModes[batch], lastIndex - base, shapeEnds[shape] - lastIndex);
+            lastIndex = shapeEnds[shape];
+        }
+    }
+
+    // Draws a batch of connected shapes at once using the index buffer or multi-draw
+    private void drawIndexedBatch(int batch, int mode)
+    {
+        if (mode == INDEX_MULTIDRAW)
+        {
+            shapeFirsts.limit(getBatchShapesEnd(batch)).position(batchFirstShapes[batch]);
+            shapeCounts.limit(getBatchShapesEnd(batch)).position(batchFirstShapes[batch]);
+            glMultiDrawArrays(batchModes[batch], shapeFirsts, shapeCounts);
+            return;
         }
 
-        // Ensure we have space remaining (and resize if we don't)
-        boolean resized = false;
-        final int requiredCapacity = vertexMap.position() + STRIDE_VERTEX;
-        if (requiredCapacity > vertexMap.capacity())
+        if (indexId != 0)
+        {
+            glDrawElements(batchModes[batch], batchIndexCounts[batch],
+                    GL_UNSIGNED_INT, batchIndexOffsets[batch] * 4L);
+        }
+        else
         {
-            // Resize to 150% of the newly required capacity
-            // Odd multiplier is to adjust for byte size and vertex pairs
-            resize((int) (requiredCapacity * .1875));
-            resized = true;
+            indexMap.limit(batchIndexOffsets[batch] + batchIndexCounts[batch])
+                    .position(batchIndexOffsets[batch]);
+            glDrawElements(batchModes[batch], indexMap);
         }
+    }
 
-        // Add vertex and color data
-        vertexMap.putFloat(x).putFloat(y);
+    /**
+     * Sets whether shapes using connected draw modes ({@link GL11#GL_LINE_STRIP},
+     * {@link GL11#GL_LINE_LOOP}, {@link GL11#GL_TRIANGLE_FAN},
+     * {@link GL11#GL_TRIANGLE_STRIP}, {@link GL11#GL_QUAD_STRIP} and
+     * {@link GL11#GL_POLYGON}) should be rewritten into their independent
+     * equivalent ({@link GL11#GL_LINES}, {@link GL11#GL_TRIANGLES} or
+     * {@link GL11#GL_QUADS}) when they are finished.
+     * <p>
+     * Consecutive shapes using the same independent draw mode are always drawn
+     * with a single draw call, so enabling this lets many small shapes (such
+     * as shields) be drawn at once, at the cost of uploading a few more
+     * vertices. Disabled by default. Only affects shapes finished after this
+     * is called.
+     * <p>
+     * @param convertToLists Whether to convert connected shapes into their
+     *                       independent equivalent.
+     * <p>
+     * @since 3.1
+     */
+    public void setConvertToLists(boolean convertToLists)
+    {
+        this.convertToLists = convertToLists;
+    }
 
-        for (int i = 0; i < currentColor.length; i++)
+    /**
+     * Sets whether this DrawQueue should compare its contents against what it
+     * last uploaded whenever it's finished. Unchanged data isn't uploaded at
+     * all, and if only part of the data changed then only the changed regions
+     * are uploaded. Useful for DrawQueues that are rebuilt often but rarely
+     * change, at the cost of keeping a second copy of the data in memory.
+     * Disabled by default. Only has an effect if VBOs are enabled.
+     * <p>
+     * @param trackChanges Whether to skip or narrow down unchanged uploads.
+     * <p>
+     * @since 3.1
+     */
+    public void setTrackChanges(boolean trackChanges)
+    {
+        if (!trackChanges || !RadarSettings.usesVertexBufferObjects())
         {
-            colorMap.put(currentColor[i]);
+            vertexTracker = null;
+            colorTracker = null;
+            return;
         }
 
-        finished = false;
-        return resized;
+        // Changes are found by comparing the whole DrawQueue to the last upload
+        removeMaxBytes("change tracking");
+        if (vertexTracker == null)
+        {
+            vertexTracker = new UploadTracker();
+            colorTracker = new UploadTracker();
+        }
     }
 
     /**
-     * Add a single vertex to the current shape. If called on a finished
-     * DrawQueue, this will reset it and start a new set of vertex data.
+     * Sets whether this DrawQueue's draw calls should be captured the first
+     * time it's drawn after being finished, and replayed with a single call
+     * until it's finished again. Only worthwhile for DrawQueues whose
+     * contents rarely change, such as the radar's background. Disabled by
+     * default.
      * <p>
-     * @param vertex The vertex to be added.
+     * The capture includes any vertex data and OpenGL state changes made by
+     * {@link DrawQueue#draw()}, and is recorded in a display list.
      * <p>
-     * @return {@code true} if the DrawQueue had to resize to fit
-     *         {@code vertex}, {@code false} otherwise.
+     * @param staticCapture Whether to capture and replay this DrawQueue's
+     *                      draw calls.
      * <p>
-     * @since 2.0
+     * @since 3.1
      */
-    public boolean addVertex(Vector2f vertex)
+    public void setStaticCapture(boolean staticCapture)
     {
-        return addVertex(vertex.x, vertex.y);
+        this.staticCapture = staticCapture;
+        captureStale = true;
     }
 
     /**
-     * Finalizes the current shape. You <i>must</i> call this after every shape,
-     * otherwise rendering errors will occur.
+     * Returns the layout of this DrawQueue's vertex buffer, which depends on
+     * whether it's interleaved and which options are enabled. If colors are
+     * stored in a separate buffer, that buffer uses
+     * {@link VertexFormat#COLOR_4UB}.
      * <p>
-     * @param shapeDrawMode The draw mode for this shape (what you would
-     *                      normally call with {@link GL11#glBegin(int)}).
+     * @return The {@link VertexFormat} describing each vertex in this
+     *         DrawQueue's vertex buffer.
      * <p>
-     * @since 2.0
+     * @since 3.1
      */
-    public void finishShape(int shapeDrawMode)
+    public VertexFormat getVertexFormat()
     {
-        // Keep track of the start/end indices of each shape and how it should be drawn
-        batchMarkers.add(new BatchMarker(shapeDrawMode, vertexMap.position() / 8));
+        return vertexFormat;
+    }
+
+    private static boolean isListMode(int drawMode)
+    {
+        return drawMode == GL_POINTS || drawMode == GL_LINES
+                || drawMode == GL_TRIANGLES || drawMode == GL_QUADS;
+    }
+
+    // Number of vertices a shape will have after being converted to list form
+    private static int getListVertexCount(int drawMode, int numVertices)
+    {
+        switch (drawMode)
+        {
+            case GL_LINE_STRIP:
+                return Math.max(0, numVertices - 1) * 2;
+            case GL_LINE_LOOP:
+                return (numVertices < 2 ? 0 : numVertices * 2);
+            case GL_TRIANGLE_FAN:
+            case GL_TRIANGLE_STRIP:
+            case GL_POLYGON:
+                return Math.max(0, numVertices - 2) * 3;
+            case GL_QUAD_STRIP:
+                return Math.max(0, (numVertices / 2) - 1) * 4;
+            default:
+                throw new RuntimeException("Unsupported draw mode: " + drawMode);
+        }
+    }
+
+    // Rewrites the shape starting at vertex index start in its list form
+    // Returns the draw mode that should be used for the rewritten shape
+    private int convertShape(int drawMode, int start)
+    {
+        // Positions in the native buffer(s) are relative to the current chunk
+        start -= chunkBase;
+        final int numVertices = (vertexMap.position() / stride) - start;
+        final int vertexBytes = numVertices * stride,
+                colorBytes = (usesColorBuffer ? numVertices * STRIDE_COLOR : 0);
+
+        // Copy the original shape out of the buffer(s)
+        if (vertexScratch.length < vertexBytes)
+        {
+            vertexScratch = new byte[vertexBytes];
+        }
+        vertexMap.position(start * stride);
+        vertexMap.get(vertexScratch, 0, vertexBytes);
+        vertexMap.position(start * stride);
+        if (usesColorBuffer)
+        {
+            if (colorScratch.length < colorBytes)
+            {
+                colorScratch = new byte[colorBytes];
+            }
+            colorMap.position(start * STRIDE_COLOR);
+            colorMap.get(colorScratch, 0, colorBytes);
+            colorMap.position(start * STRIDE_COLOR);
+        }
+
+        // Then write it back in its expanded form
+        ensureCapacity(getListVertexCount(drawMode, numVertices));
+        switch (drawMode)
+        {
+            case GL_LINE_STRIP:
+            case GL_LINE_LOOP:
+                for (int x = 0; x < numVertices - 1; x++)
+                {
+                    copyVertex(x);
+                    copyVertex(x + 1);
+                }
+                if (drawMode == GL_LINE_LOOP && numVertices >= 2)
+                {
+                    copyVertex(numVertices - 1);
+                    copyVertex(0);
+                }
+                return GL_LINES;
+            case GL_TRIANGLE_FAN:
+            case GL_POLYGON:
+                for (int x = 1; x < numVertices - 1; x++)
+                {
+                    copyVertex(0);
+                    copyVertex(x);
+                    copyVertex(x + 1);
+                }
+                return GL_TRIANGLES;
+            case GL_TRIANGLE_STRIP:
+                // Every other triangle has its winding flipped to match strip order
+                for (int x = 0; x < numVertices - 2; x++)
+                {
+                    copyVertex((x & 1) == 0 ? x : x + 1);
+                    copyVertex((x & 1) == 0 ? x + 1 : x);
+                    copyVertex(x + 2);
+                }
+                return GL_TRIANGLES;
+            case GL_QUAD_STRIP:
+                for (int x = 0; x + 3 < numVertices; x += 2)
+                {
+                    copyVertex(x);
+                    copyVertex(x + 1);
+                    copyVertex(x + 3);
+                    copyVertex(x + 2);
+                }
+                return GL_QUADS;
+            default:
+                throw new RuntimeException("Unsupported draw mode: " + drawMode);
+        }
+    }
+
+    // Copies a vertex of the shape being converted back into the buffer(s)
+    private void copyVertex(int index)
+    {
+        vertexMap.put(vertexScratch, index * stride, stride);
+        if (usesColorBuffer)
+        {
+            colorMap.put(colorScratch, index * STRIDE_COLOR, STRIDE_COLOR);
+        }
     }
 
     /**
@@ -448,6 +1866,7 @@ public class DrawQueue
      */
     public void finish()
     {
+        checkDisposed();
         if (finished)
         {
             throw new RuntimeException("DrawQueue is already finished!");
@@ -455,36 +1874,156 @@ public class DrawQueue
 
         // Prepare our data for reading/later rewriting
         vertexMap.flip();
-        colorMap.flip();
+        if (usesColorBuffer)
+        {
+            colorMap.flip();
+        }
+        trackUsage(chunkBase + vertexMap.limit() / stride);
 
+        // If sharing a buffer, write into fresh space at the end of it
+        if (arena != null)
+        {
+            int result = UploadTracker.RESULT_SKIPPED;
+            if (vertexTracker == null || !vertexTracker.isUnchanged(vertexMap)
+                    || vertexAlloc.getOffset() < 0)
+            {
+                arena.upload(vertexAlloc, vertexMap);
+                result = UploadTracker.RESULT_FULL;
+            }
+            if (usesColorBuffer && (colorTracker == null
+                    || !colorTracker.isUnchanged(colorMap) || colorAlloc.getOffset() < 0))
+            {
+                arena.upload(colorAlloc, colorMap);
+                result = UploadTracker.RESULT_FULL;
+            }
+            recordUpload(result);
+        }
+        // If streaming, write into the next free region of each buffer
+        else if (vertexStream != null)
+        {
+            int result = UploadTracker.RESULT_SKIPPED;
+            if (vertexTracker == null || !vertexTracker.isUnchanged(vertexMap))
+            {
+                vertexOffset = vertexStream.upload(vertexMap);
+                result = UploadTracker.RESULT_FULL;
+            }
+            if (usesColorBuffer && (colorTracker == null || !colorTracker.isUnchanged(colorMap)))
+            {
+                colorOffset = colorStream.upload(colorMap);
+                result = UploadTracker.RESULT_FULL;
+            }
+            recordUpload(result);
+        }
         // If we're using vertex buffer objects, send the data to the card now
-        if (RadarSettings.usesVertexBufferObjects())
+        else if (RadarSettings.usesVertexBufferObjects())
         {
-            // Vertex data
+            // Vertex data (also contains color data if interleaved)
             glBindBuffer(GL_ARRAY_BUFFER, vertexId);
-            glBufferData(GL_ARRAY_BUFFER, vertexMap, drawFlag);
+            int result = UploadTracker.RESULT_FULL;
+            if (vertexTracker != null)
+            {
+                result = vertexTracker.upload(vertexMap, drawFlag);
+            }
+            else
+            {
+                glBufferData(GL_ARRAY_BUFFER, vertexMap, drawFlag);
+            }
 
             // Color data
-            glBindBuffer(GL_ARRAY_BUFFER, colorId);
-            glBufferData(GL_ARRAY_BUFFER, colorMap, drawFlag);
+            if (usesColorBuffer)
+            {
+                glBindBuffer(GL_ARRAY_BUFFER, colorId);
+                if (colorTracker != null)
+                {
+                    result = Math.max(result, colorTracker.upload(colorMap, drawFlag));
+                }
+                else
+                {
+                    glBufferData(GL_ARRAY_BUFFER, colorMap, drawFlag);
+                }
+            }
 
             // Release buffer binding
             glBindBuffer(GL_ARRAY_BUFFER, 0);
+            recordUpload(result);
+        }
+
+        if (indexMode != INDEX_NONE)
+        {
+            buildIndices();
         }
 
+        captureStale = true;
         finished = true;
     }
 
+    private void bindArrayBuffer(int bufferId)
+    {
+        if (arena != null)
+        {
+            arena.bind();
+        }
+        else
+        {
+            glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+        }
+    }
+
+    private void releaseArrayBuffer()
+    {
+        if (arena != null)
+        {
+            arena.release();
+        }
+        else
+        {
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+    }
+
+    // Records peak usage, and schedules a shrink if usage stays low for too long
+    private void trackUsage(int numVertices)
+    {
+        record.peakVertices = Math.max(record.peakVertices, numVertices);
+        record.peakShapes = Math.max(record.peakShapes, numShapes);
+
+        final int capacity = vertexMap.capacity() / stride;
+        if (numVertices * SHRINK_THRESHOLD >= capacity)
+        {
+            lowUsageFinishes = 0;
+            lowUsagePeak = 0;
+            return;
+        }
+
+        lowUsagePeak = Math.max(lowUsagePeak, numVertices);
+        if (++lowUsageFinishes >= SHRINK_DELAY)
+        {
+            // Shrink to 150% of the highest usage seen while usage was low,
+            // but keep enough room for the peak recorded in earlier battles
+            final int newCapacity = Math.max(Math.max(16, minCapacity),
+                    (int) (lowUsagePeak * 1.5f));
+            if (newCapacity < capacity)
+            {
+                shrinkTo = newCapacity;
+            }
+            lowUsageFinishes = 0;
+            lowUsagePeak = 0;
+        }
+    }
+
     /**
      * Renders all data in the DrawQueue. {@link DrawQueue#finish()} must be
      * called before using this. This method requires OpenGL client states
      * {@link GL11#GL_VERTEX_ARRAY} and {@link GL11#GL_COLOR_ARRAY} to be
-     * enabled.
+     * enabled. If flat colors are enabled, the color array isn't needed; if
+     * it is enabled it's temporarily disabled while drawing and re-enabled
+     * afterwards, and the current OpenGL color is changed.
      * <p>
      * @since 2.0
      */
     public void draw()
     {
+        checkDisposed();
         if (!finished)
         {
             throw new RuntimeException("Must call finish() before drawing!");
@@ -496,46 +2035,263 @@ public class DrawQueue
             return;
         }
 
+        if (staticCapture)
+        {
+            drawCaptured();
+            return;
+        }
+
+        drawContents(indexMode);
+    }
+
+    // Replays the display list holding this DrawQueue's draw calls, recording
+    // it first if the contents have changed since it was last recorded
+    private void drawCaptured()
+    {
+        if (listId != 0 && !captureStale)
+        {
+            glCallList(listId);
+            return;
+        }
+
+        if (listId == 0)
+        {
+            listId = glGenLists(1);
+            record.listId = listId;
+        }
+
+        // Indices and restart state can't be safely captured, but since the list
+        // is only recorded once it's fine to draw the shapes individually instead
+        glNewList(listId, GL_COMPILE_AND_EXECUTE);
+        drawContents(INDEX_NONE);
+        glEndList();
+        captureStale = false;
+    }
+
+    // Points the vertex and color arrays at one of the chunks flushed in bounded mode
+    private void setChunkPointers(int chunk)
+    {
+        glBindBuffer(GL_ARRAY_BUFFER, chunkVertexIds[chunk]);
+        vertexFormat.setPointers(0L);
+        if (usesColorBuffer)
+        {
+            glBindBuffer(GL_ARRAY_BUFFER, chunkColorIds[chunk]);
+            VertexFormat.COLOR_4UB.setPointers(0L);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    // Points the vertex and color arrays at the data uploaded by finish()
+    private void setBufferPointers()
+    {
         // If using vertex buffer objects, draw using the data we already sent to the card
+        // Interleaved data only needs a single bind, and flat colors have no color array
         if (RadarSettings.usesVertexBufferObjects())
         {
-            // Vertex data
-            glBindBuffer(GL_ARRAY_BUFFER, vertexId);
-            glVertexPointer(SIZEOF_VERTEX, GL_FLOAT, STRIDE_VERTEX, 0);
+            // Shared buffer regions can move whenever another DrawQueue is finished
+            if (arena != null)
+            {
+                vertexOffset = vertexAlloc.getOffset();
+                colorOffset = colorAlloc.getOffset();
+            }
 
-            // Color data
-            glBindBuffer(GL_ARRAY_BUFFER, colorId);
-            glColorPointer(SIZEOF_COLOR, GL_UNSIGNED_BYTE, STRIDE_COLOR, 0);
+            bindArrayBuffer(vertexId);
+            vertexFormat.setPointers(vertexOffset);
+            if (usesColorBuffer)
+            {
+                bindArrayBuffer(colorId);
+                VertexFormat.COLOR_4UB.setPointers(colorOffset);
+            }
 
             // Release buffer binding
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            releaseArrayBuffer();
         }
         // Otherwise, send the data to the card from main memory every frame :(
         else
         {
-            glVertexPointer(SIZEOF_VERTEX, GL_FLOAT, STRIDE_VERTEX, vertexMap);
-            glColorPointer(SIZEOF_COLOR, GL_UNSIGNED_BYTE, STRIDE_COLOR, colorMap);
+            vertexFormat.setPointers(vertexMap);
+            if (usesColorBuffer)
+            {
+                VertexFormat.COLOR_4UB.setPointers(colorMap);
+            }
+        }
+    }
+
+    // Draws every batch, using indices for connected batches if mode isn't INDEX_NONE
+    // The mode is passed in so capturing can opt out without touching indexMode
+    private void drawContents(int mode)
+    {
+        // Bounded DrawQueues draw any chunks they flushed before the data from finish()
+        int chunk = 0, base = 0;
+        if (numChunks > 0)
+        {
+            setChunkPointers(0);
+        }
+        else
+        {
+            setBufferPointers();
         }
 
-        // Hacky solution for drawing multiple shapes from one buffer
+        // Compact positions are relative to the origin and scaled up by their precision
+        if (compactVertices)
+        {
+            glPushMatrix();
+            glTranslatef(compactOriginX, compactOriginY, 0f);
+            glScalef(1f / compactScale, 1f / compactScale, 1f);
+        }
+
+        // Set up primitive restart for indexed batches
+        if (mode == INDEX_RESTART)
+        {
+            glEnable(GL_PRIMITIVE_RESTART);
+            glPrimitiveRestartIndex(RESTART_INDEX);
+        }
+        else if (mode == INDEX_RESTART_NV)
+        {
+            glEnableClientState(GL_PRIMITIVE_RESTART_NV);
+            glPrimitiveRestartIndexNV(RESTART_INDEX);
+        }
+
+        final boolean bindIndices = (mode != INDEX_NONE && indexId != 0);
+        if (bindIndices)
+        {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexId);
+        }
+
+        // Flat colors are set once per batch rather than read from an array
+        // The color array is only restored afterwards if it was enabled on entry
+        final boolean colorArrayWasEnabled = flatColors && glIsEnabled(GL_COLOR_ARRAY);
+        if (colorArrayWasEnabled)
+        {
+            glDisableClientState(GL_COLOR_ARRAY);
+        }
+
+        // Draw each batch of shapes from the one buffer
         int lastIndex = 0;
-        for (BatchMarker marker : batchMarkers)
+        for (int x = 0; x < numBatches; x++)
+        {
+            // Switch buffers once every batch in the current chunk has been drawn
+            while (chunk < numChunks && x == chunkEndBatches[chunk])
+            {
+                chunk++;
+                if (chunk < numChunks)
+                {
+                    base = chunkBaseVertices[chunk];
+                    setChunkPointers(chunk);
+                }
+                else
+                {
+                    base = chunkBase;
+                    setBufferPointers();
+                }
+            }
+
+            if (flatColors && (x == 0 || batchColors[x] != batchColors[x - 1]))
+            {
+                final int color = batchColors[x];
+                glColor4ub((byte) (color >>> 24), (byte) (color >>> 16),
+                        (byte) (color >>> 8), (byte) color);
+            }
+
+            // Batches of multiple connected shapes are drawn using indices
+            if (!isListMode(batchModes[x]) && getBatchShapesEnd(x) - batchFirstShapes[x] > 1)
+            {
+                if (mode != INDEX_NONE)
+                {
+                    drawIndexedBatch(x, mode);
+                }
+                else
+                {
+                    drawShapesIndividually(x, base);
+                }
+            }
+            else
+            {
+                glDrawArrays(batchModes[x], lastIndex - base, batchEnds[x] - lastIndex);
+            }
+
+            lastIndex = batchEnds[x];
+        }
+
+        if (colorArrayWasEnabled)
+        {
+            glEnableClientState(GL_COLOR_ARRAY);
+        }
+
+        if (compactVertices)
+        {
+            glPopMatrix();
+        }
+
+        if (bindIndices)
+        {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+
+        if (mode == INDEX_RESTART)
+        {
+            glDisable(GL_PRIMITIVE_RESTART);
+        }
+        else if (mode == INDEX_RESTART_NV)
         {
-            glDrawArrays(marker.drawMode, lastIndex, marker.resetIndex - lastIndex);
-            lastIndex = marker.resetIndex;
+            glDisableClientState(GL_PRIMITIVE_RESTART_NV);
         }
     }
 
-    // Stores miscellaneous data for each shape to be drawn, currently
-    // which draw mode to use and the position in the buffer to draw to
-    private static class BatchMarker
+    // Native resources owned by a single DrawQueue, kept separately so they
+    // can still be released after the DrawQueue itself is garbage collected
+    private static final class BufferRecord
     {
-        private final int drawMode, resetIndex;
+        private final boolean scoped;
+        private final Throwable allocationSite;
+        private IntBuffer ids = null;
+        private StreamingBuffer vertexStream = null, colorStream = null;
+        private String name = null;
+        private int bytes = 0, peakVertices = 0, peakShapes = 0, listId = 0;
+
+        private BufferRecord(boolean scoped)
+        {
+            this.scoped = scoped;
+            allocationSite = (RadarSettings.isDetectingDrawQueueLeaks()
+                    ? new Throwable("DrawQueue allocation site") : null);
+        }
+
+        private void addBuffers(IntBuffer newIds)
+        {
+            if (ids == null)
+            {
+                ids = newIds;
+                return;
+            }
+
+            final IntBuffer combined = BufferUtils.createIntBuffer(
+                    ids.capacity() + newIds.capacity());
+            ids.rewind();
+            newIds.rewind();
+            ids = combined.put(ids).put(newIds);
+            ids.flip();
+        }
 
-        private BatchMarker(int drawMode, int resetIndex)
+        private void release()
         {
-            this.drawMode = drawMode;
-            this.resetIndex = resetIndex;
+            if (vertexStream != null)
+            {
+                vertexStream.releaseFences();
+            }
+            if (colorStream != null)
+            {
+                colorStream.releaseFences();
+            }
+            if (ids != null)
+            {
+                glDeleteBuffers(ids);
+                ids = null;
+            }
+            if (listId != 0)
+            {
+                glDeleteLists(listId, 1);
+                listId = 0;
+            }
         }
     }
 }
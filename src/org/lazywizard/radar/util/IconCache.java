@@ -0,0 +1,219 @@
+package org.lazywizard.radar.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import com.fs.starfarer.api.Global;
+import com.fs.starfarer.api.graphics.SpriteAPI;
+import org.apache.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL14.GL_GENERATE_MIPMAP;
+
+/**
+ * Builds small, mipmapped copies of sprites at the size they're actually
+ * drawn on the radar, so contacts a few dozen pixels wide don't sample
+ * full-resolution textures. Each icon is built once per sprite and size
+ * bucket (the next power of two at or above the drawn size), and its texture
+ * state is set when it's created rather than every frame.
+ * <p>
+ * Icons only keep their sprite's alpha channel, so they take on the color
+ * they're drawn with using the default {@code GL_MODULATE} texture
+ * environment. Every cache created is disposed by
+ * {@link IconCache#disposeAll()}, which the radar calls at the end of each
+ * battle.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public class IconCache
+{
+    private static final Logger Log = Global.getLogger(IconCache.class);
+    private static final List<IconCache> liveCaches = new ArrayList<>();
+    private final int minIconSize, maxIconSize;
+    // Keyed by the sprite's texture ID in the upper bits and size bucket in the lower
+    private final Map<Long, TextureAtlas.Region> icons = new HashMap<>();
+    private boolean disposed = false;
+
+    /**
+     * Disposes of every {@link IconCache} that hasn't been disposed yet.
+     * Called by the radar at the end of each battle, so you should never need
+     * to call it yourself.
+     * <p>
+     * @since 3.1
+     */
+    public static void disposeAll()
+    {
+        for (IconCache cache : new ArrayList<>(liveCaches))
+        {
+            cache.dispose();
+        }
+    }
+
+    /**
+     * Creates a new, empty IconCache. No textures are allocated until the
+     * first icon is requested.
+     * <p>
+     * @param minIconSize The smallest icon size built. Rounded up to a power
+     *                    of two.
+     * @param maxIconSize The largest icon size built. Rounded up to a power of
+     *                    two, and clamped to the largest texture size the
+     *                    card supports.
+     * <p>
+     * @since 3.1
+     */
+    public IconCache(int minIconSize, int maxIconSize)
+    {
+        this.maxIconSize = Math.min(nextPowerOfTwo(maxIconSize),
+                glGetInteger(GL_MAX_TEXTURE_SIZE));
+        this.minIconSize = Math.min(nextPowerOfTwo(minIconSize), this.maxIconSize);
+        liveCaches.add(this);
+    }
+
+    private static int nextPowerOfTwo(int value)
+    {
+        int result = 1;
+        while (result < value)
+        {
+            result <<= 1;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns an icon of a sprite suitable for drawing at a specific size,
+     * building it if it doesn't exist yet. Must be called on the rendering
+     * thread, and may change the texture bound to
+     * {@link org.lwjgl.opengl.GL11#GL_TEXTURE_2D}.
+     * <p>
+     * @param sprite    The sprite to get an icon of.
+     * @param pixelSize The largest width or height the sprite will be drawn
+     *                  at, in pixels.
+     * <p>
+     * @return The {@link TextureAtlas.Region} covering the icon, which has
+     *         its own texture.
+     * <p>
+     * @since 3.1
+     */
+    public TextureAtlas.Region getIcon(SpriteAPI sprite, float pixelSize)
+    {
+        if (disposed)
+        {
+            throw new RuntimeException("IconCache has already been disposed!");
+        }
+
+        final int size = Math.max(minIconSize, Math.min(maxIconSize,
+                nextPowerOfTwo((int) Math.ceil(pixelSize))));
+        final Long key = ((long) sprite.getTextureId() << 32) | size;
+        TextureAtlas.Region icon = icons.get(key);
+        if (icon == null)
+        {
+            icon = createIcon(sprite, size);
+            icons.put(key, icon);
+        }
+
+        return icon;
+    }
+
+    private static TextureAtlas.Region createIcon(SpriteAPI sprite, int size)
+    {
+        final SpriteImage image = SpriteImage.read(sprite, size, true);
+        final int width = nextPowerOfTwo(image.getWidth()),
+                height = nextPowerOfTwo(image.getHeight());
+
+        // All texture state is set once here instead of whenever it's drawn
+        final int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexParameteri(GL_TEXTURE_2D, GL_GENERATE_MIPMAP, GL_TRUE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+
+        // Any space left over from rounding up to a power of two stays transparent
+        final ByteBuffer empty = BufferUtils.createByteBuffer(width * height);
+        final int oldUnpack = glGetInteger(GL_UNPACK_ALIGNMENT);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_ALPHA8, width, height, 0,
+                GL_ALPHA, GL_UNSIGNED_BYTE, empty);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, oldUnpack);
+        NativeBuffers.free(empty);
+        image.upload(0, 0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        final TextureAtlas.Region icon = new TextureAtlas.Region(id, 0f, 0f,
+                image.getWidth() / (float) width, image.getHeight() / (float) height, sprite);
+        Log.debug("Created " + image.getWidth() + "x" + image.getHeight()
+                + " icon for texture " + sprite.getTextureId());
+        image.free();
+        return icon;
+    }
+
+    /**
+     * Deletes the icon using a specific texture, if this cache built it. The
+     * icon will be rebuilt if it's requested again.
+     * <p>
+     * @param textureId The texture ID of the icon, as returned by
+     *                  {@link TextureAtlas.Region#getTextureId()}.
+     * <p>
+     * @return {@code true} if an icon was deleted, {@code false} if this
+     *         cache has no icon using {@code textureId}.
+     * <p>
+     * @since 3.1
+     */
+    public boolean release(int textureId)
+    {
+        final Iterator<TextureAtlas.Region> iter = icons.values().iterator();
+        while (iter.hasNext())
+        {
+            if (iter.next().getTextureId() == textureId)
+            {
+                glDeleteTextures(textureId);
+                iter.remove();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns how many icons have been built by this cache.
+     * <p>
+     * @return The number of icons in this cache.
+     * <p>
+     * @since 3.1
+     */
+    public int getNumIcons()
+    {
+        return icons.size();
+    }
+
+    /**
+     * Deletes every icon texture built by this cache. The cache can't be used
+     * again afterwards. Calling this more than once has no effect.
+     * <p>
+     * @since 3.1
+     */
+    public void dispose()
+    {
+        if (disposed)
+        {
+            return;
+        }
+
+        for (TextureAtlas.Region icon : icons.values())
+        {
+            glDeleteTextures(icon.getTextureId());
+        }
+
+        icons.clear();
+        liveCaches.remove(this);
+        disposed = true;
+    }
+}
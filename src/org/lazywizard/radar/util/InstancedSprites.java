@@ -0,0 +1,240 @@
+package org.lazywizard.radar.util;
+
+import com.fs.starfarer.api.Global;
+import org.apache.log4j.Logger;
+import org.lazywizard.radar.RadarSettings;
+import org.lwjgl.opengl.ARBDrawInstanced;
+import org.lwjgl.opengl.ARBInstancedArrays;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLContext;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Draws {@link SpriteBatch} quads by instancing a shared unit quad, with one
+ * {@link InstancedSprites#FORMAT} record per sprite. The quad is positioned,
+ * rotated and textured by a small shader, so the CPU never expands sprites
+ * into vertices.
+ * <p>
+ * The shader is compiled the first time
+ * {@link InstancedSprites#isAvailable()} is called. If that fails, sprites
+ * fall back to CPU expanded quads for the rest of the session.
+ * <p>
+ * Only used internally by {@link SpriteBatch} and {@link SpriteBatchManager}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+final class InstancedSprites
+{
+    private static final Logger Log = Global.getLogger(InstancedSprites.class);
+    /**
+     * One sprite: its center and size, its texture coordinates, its rotation
+     * in radians and sprite center offset, and its color.
+     */
+    static final VertexFormat FORMAT = new VertexFormat(
+            new VertexFormat.Attribute(VertexFormat.USAGE_GENERIC, 4, GL_FLOAT, false),
+            new VertexFormat.Attribute(VertexFormat.USAGE_GENERIC, 4, GL_FLOAT, false),
+            new VertexFormat.Attribute(VertexFormat.USAGE_GENERIC, 3, GL_FLOAT, false),
+            new VertexFormat.Attribute(VertexFormat.USAGE_GENERIC, 4, GL_UNSIGNED_BYTE, true));
+    // Shader inputs, in the same order as FORMAT's attributes
+    private static final String[] ATTRIBUTE_NAMES =
+    {
+        "posSize", "texCoords", "rotation", "color"
+    };
+    private static final String VERTEX_SHADER
+            = "#version 120\n"
+            + "attribute vec4 posSize;\n"
+            + "attribute vec4 texCoords;\n"
+            + "attribute vec3 rotation;\n"
+            + "attribute vec4 color;\n"
+            + "varying vec2 texCoord;\n"
+            + "varying vec4 tint;\n"
+            + "void main()\n"
+            + "{\n"
+            // Same transform SpriteBatch applies on the CPU
+            + "    vec2 corner = gl_Vertex.xy;\n"
+            + "    vec2 local = (corner - 0.5 * rotation.yz) * posSize.zw;\n"
+            + "    float c = cos(rotation.x), s = sin(rotation.x);\n"
+            + "    vec2 pos = posSize.xy + vec2(local.x * c - local.y * s,\n"
+            + "            local.x * s + local.y * c);\n"
+            + "    texCoord = mix(texCoords.xy, texCoords.zw, corner);\n"
+            + "    tint = color;\n"
+            + "    gl_Position = gl_ModelViewProjectionMatrix * vec4(pos, 0.0, 1.0);\n"
+            + "}\n";
+    private static final String FRAGMENT_SHADER
+            = "#version 120\n"
+            + "uniform sampler2D tex;\n"
+            + "uniform bool alphaTexture;\n"
+            + "varying vec2 texCoord;\n"
+            + "varying vec4 tint;\n"
+            + "void main()\n"
+            + "{\n"
+            // Matches GL_MODULATE for both alpha-only and color textures
+            + "    vec4 texel = texture2D(tex, texCoord);\n"
+            + "    gl_FragColor = (alphaTexture ? vec4(tint.rgb, tint.a * texel.a)\n"
+            + "            : tint * texel);\n"
+            + "}\n";
+    private static boolean checked = false, available = false, useCore;
+    private static int program = 0, alphaTextureLoc = -1;
+    private static VertexBatch corners;
+
+    /**
+     * Checks whether sprites can be drawn instanced, compiling the shader the
+     * first time this is called. Must be called on the rendering thread.
+     *
+     * @return {@code true} if instancing is enabled and its shader is ready,
+     *         {@code false} otherwise.
+     */
+    static boolean isAvailable()
+    {
+        if (!checked)
+        {
+            checked = true;
+            available = RadarSettings.usesInstancedSprites() && init();
+        }
+
+        return available;
+    }
+
+    private static boolean init()
+    {
+        useCore = GLContext.getCapabilities().OpenGL33;
+        final int vertexShader = compile(GL_VERTEX_SHADER, VERTEX_SHADER),
+                fragmentShader = compile(GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        if (vertexShader == 0 || fragmentShader == 0)
+        {
+            glDeleteShader(vertexShader);
+            glDeleteShader(fragmentShader);
+            return false;
+        }
+
+        program = glCreateProgram();
+        glAttachShader(program, vertexShader);
+        glAttachShader(program, fragmentShader);
+        for (int x = 0; x < ATTRIBUTE_NAMES.length; x++)
+        {
+            glBindAttribLocation(program, FORMAT.getAttribute(x).getGenericIndex(),
+                    ATTRIBUTE_NAMES[x]);
+        }
+        glLinkProgram(program);
+        glDeleteShader(vertexShader);
+        glDeleteShader(fragmentShader);
+
+        if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE)
+        {
+            Log.warn("Failed to link instanced sprite shader, falling back to quads:\n"
+                    + glGetProgramInfoLog(program, 4096));
+            glDeleteProgram(program);
+            program = 0;
+            return false;
+        }
+
+        glUseProgram(program);
+        glUniform1i(glGetUniformLocation(program, "tex"), 0);
+        alphaTextureLoc = glGetUniformLocation(program, "alphaTexture");
+        glUseProgram(0);
+
+        // Every sprite shares this one unit quad
+        corners = new VertexBatch(VertexFormat.POSITION_2F, 4);
+        corners.reserveVertices(4);
+        corners.putFloat(0f).putFloat(0f).putFloat(1f).putFloat(0f)
+                .putFloat(1f).putFloat(1f).putFloat(0f).putFloat(1f);
+        corners.finishShape(GL_TRIANGLE_FAN);
+        corners.finish();
+        return true;
+    }
+
+    private static int compile(int type, String source)
+    {
+        final int shader = glCreateShader(type);
+        glShaderSource(shader, source);
+        glCompileShader(shader);
+        if (glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE)
+        {
+            Log.warn("Failed to compile instanced sprite shader, falling back to quads:\n"
+                    + glGetShaderInfoLog(shader, 4096));
+            glDeleteShader(shader);
+            return 0;
+        }
+
+        return shader;
+    }
+
+    private static void setDivisors(int divisor)
+    {
+        for (int x = 0; x < FORMAT.getNumAttributes(); x++)
+        {
+            final int index = FORMAT.getAttribute(x).getGenericIndex();
+            if (useCore)
+            {
+                GL33.glVertexAttribDivisor(index, divisor);
+            }
+            else
+            {
+                ARBInstancedArrays.glVertexAttribDivisorARB(index, divisor);
+            }
+        }
+    }
+
+    /**
+     * Binds the shader and enables the arrays needed to draw instanced
+     * sprites. Must be followed by {@link InstancedSprites#end()}.
+     */
+    static void begin()
+    {
+        glUseProgram(program);
+        VertexFormat.POSITION_2F.enableArrays();
+        FORMAT.enableArrays();
+        setDivisors(1);
+        corners.setPointers();
+    }
+
+    /**
+     * Draws one quad for every record in {@code instances}. Must be called
+     * between {@link InstancedSprites#begin()} and
+     * {@link InstancedSprites#end()}, with the sprites' texture bound.
+     *
+     * @param instances    The finished sprite records to draw.
+     * @param alphaTexture Whether the bound texture only has an alpha
+     *                     channel, and so should only affect the sprites'
+     *                     alpha.
+     */
+    static void draw(VertexBatch instances, boolean alphaTexture)
+    {
+        final int numInstances = instances.getNumVertices();
+        if (numInstances == 0)
+        {
+            return;
+        }
+
+        glUniform1i(alphaTextureLoc, (alphaTexture ? 1 : 0));
+        instances.setPointers();
+        if (useCore)
+        {
+            GL31.glDrawArraysInstanced(GL_TRIANGLE_FAN, 0, 4, numInstances);
+        }
+        else
+        {
+            ARBDrawInstanced.glDrawArraysInstancedARB(GL_TRIANGLE_FAN, 0, 4, numInstances);
+        }
+    }
+
+    /**
+     * Unbinds the shader and disables the arrays enabled by
+     * {@link InstancedSprites#begin()}.
+     */
+    static void end()
+    {
+        // Other code using these attribute indices expects per-vertex data
+        setDivisors(0);
+        FORMAT.disableArrays();
+        VertexFormat.POSITION_2F.disableArrays();
+        glUseProgram(0);
+    }
+
+    private InstancedSprites()
+    {
+    }
+}
@@ -0,0 +1,130 @@
+package org.lazywizard.radar.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import com.fs.starfarer.api.Global;
+import org.apache.log4j.Logger;
+
+/**
+ * Frees direct buffers as soon as they're replaced, instead of leaving their
+ * native memory to be reclaimed whenever the garbage collector gets around to
+ * it. Direct memory doesn't count towards the Java heap, so the collector has
+ * no idea how much of it abandoned buffers are holding onto.
+ * <p>
+ * This relies on the JVM's internal buffer cleaner, reached through
+ * {@code Unsafe.invokeCleaner()} on Java 9 and later, or through the buffer's
+ * own {@code cleaner()} on Java 8 and earlier. If neither is accessible,
+ * freeing falls back to waiting for garbage collection, which is logged once
+ * when this class is loaded.
+ * <p>
+ * A freed buffer must never be accessed again, so only free buffers that
+ * nothing else (including shared buffer regions) still references.
+ * <p>
+ * Only used internally by {@link DrawQueue}, {@link VertexBatch} and the
+ * texture classes built on {@link SpriteImage}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+final class NativeBuffers
+{
+    private static final Logger Log = Global.getLogger(NativeBuffers.class);
+    // Java 9+: Unsafe.invokeCleaner(ByteBuffer)
+    // Volatile as DrawQueues may be filled (and resized) on the fill thread
+    private static Object unsafe = null;
+    private static volatile Method invokeCleaner = null;
+    // Java 8 and earlier: DirectBuffer.cleaner().clean()
+    private static volatile Method getCleaner = null;
+    private static Method clean = null;
+
+    static
+    {
+        try
+        {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException | LinkageError ex)
+        {
+            invokeCleaner = null;
+            unsafe = null;
+        }
+
+        if (invokeCleaner == null)
+        {
+            try
+            {
+                getCleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            }
+            catch (ReflectiveOperationException | RuntimeException | LinkageError ex)
+            {
+                Log.warn("Native buffers can't be freed explicitly on this JVM,"
+                        + " relying on garbage collection");
+                getCleaner = null;
+                clean = null;
+            }
+        }
+    }
+
+    /**
+     * Frees a direct buffer's native memory immediately. Buffers that aren't
+     * direct, or that are views of another buffer, are left to the garbage
+     * collector.
+     *
+     * @param buffer The buffer to free. Must not be used afterwards.
+     */
+    static void free(ByteBuffer buffer)
+    {
+        if (buffer == null || !buffer.isDirect())
+        {
+            return;
+        }
+
+        // Read once, as another thread may disable freeing in the meantime
+        final Method unsafeClean = invokeCleaner, bufferCleaner = getCleaner;
+        try
+        {
+            if (unsafeClean != null)
+            {
+                unsafeClean.invoke(unsafe, buffer);
+            }
+            else if (bufferCleaner != null)
+            {
+                final Object cleaner = bufferCleaner.invoke(buffer);
+                if (cleaner != null)
+                {
+                    clean.invoke(cleaner);
+                }
+            }
+        }
+        catch (InvocationTargetException ex)
+        {
+            // Thrown by invokeCleaner() for views of another buffer
+            if (!(ex.getCause() instanceof IllegalArgumentException))
+            {
+                disable(ex);
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            disable(ex);
+        }
+    }
+
+    private static void disable(Exception ex)
+    {
+        Log.warn("Failed to free native buffer, relying on garbage collection from now on", ex);
+        invokeCleaner = null;
+        getCleaner = null;
+    }
+
+    private NativeBuffers()
+    {
+    }
+}
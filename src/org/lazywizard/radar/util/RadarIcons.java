@@ -0,0 +1,86 @@
+package org.lazywizard.radar.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.fs.starfarer.api.Global;
+import com.fs.starfarer.api.graphics.SpriteAPI;
+
+/**
+ * A single {@link TextureAtlas} shared by the icons in the "radar" category
+ * of the graphics settings (missiles, flares, the missile lock warning,
+ * asteroids, nebulae and simple ships). Because every icon is on the same
+ * page, {@link SpriteBatch}es of different icons share a texture and blend
+ * mode, so {@link SpriteBatchManager} doesn't rebind between consecutive icon
+ * batches, and one renderer can draw several kinds of icon from a single
+ * batch. Each renderer's batch is still drawn with its own draw call.
+ * <p>
+ * Icons keep their colors, so they're drawn exactly like the original
+ * sprites. The atlas is created the first time an icon is requested and
+ * disposed along with every other atlas at the end of each battle.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public final class RadarIcons
+{
+    // Room for nine icons at the largest size, more than the radar uses
+    private static final int PAGE_SIZE = 512, MAX_ICON_SIZE = 128;
+    private static final Map<String, SpriteAPI> sprites = new HashMap<>();
+    private static TextureAtlas atlas;
+
+    /**
+     * Returns the region of the shared atlas containing a radar icon, adding
+     * it if it isn't already there. Must be called on the rendering thread,
+     * and may change the texture bound to
+     * {@link org.lwjgl.opengl.GL11#GL_TEXTURE_2D}.
+     * <p>
+     * @param spriteId The ID of the icon, found in the "radar" subcategory of
+     *                 the "graphics" section of data/config/settings.json.
+     * <p>
+     * @return The {@link TextureAtlas.Region} containing the icon.
+     * <p>
+     * @since 3.1
+     */
+    public static TextureAtlas.Region getIcon(String spriteId)
+    {
+        return getAtlas().add(getSprite(spriteId));
+    }
+
+    /**
+     * Returns the original sprite of a radar icon, for its size and other
+     * properties. The sprite itself shouldn't be drawn or modified.
+     * <p>
+     * @param spriteId The ID of the icon, found in the "radar" subcategory of
+     *                 the "graphics" section of data/config/settings.json.
+     * <p>
+     * @return The sprite {@code spriteId} was loaded from.
+     * <p>
+     * @since 3.1
+     */
+    public static SpriteAPI getSprite(String spriteId)
+    {
+        SpriteAPI sprite = sprites.get(spriteId);
+        if (sprite == null)
+        {
+            sprite = Global.getSettings().getSprite("radar", spriteId);
+            sprites.put(spriteId, sprite);
+        }
+
+        return sprite;
+    }
+
+    private static TextureAtlas getAtlas()
+    {
+        // The previous battle's atlas was freed by TextureAtlas.disposeAll()
+        if (atlas == null || atlas.isDisposed())
+        {
+            atlas = new TextureAtlas(PAGE_SIZE, MAX_ICON_SIZE);
+        }
+
+        return atlas;
+    }
+
+    private RadarIcons()
+    {
+    }
+}
@@ -65,6 +65,50 @@ public class ShapeUtils
         return vertices;
     }
 
+    /**
+     * Writes the vertices for a simple circle directly into a
+     * {@link DrawQueue}, without allocating an intermediate array. Produces
+     * the same vertices as
+     * {@link ShapeUtils#createCircle(float, float, float, int)}.
+     * <p>
+     * You will still need to call {@link DrawQueue#finishShape(int)}
+     * afterwards.
+     *
+     * @param queue       The {@link DrawQueue} to add the vertices to. They
+     *                    will use the queue's current color.
+     * @param centerX     The x value of the center point of the circle.
+     * @param centerY     The y value of the center point of the circle.
+     * @param radius      The radius of the circle to be drawn.
+     * @param numSegments How many line segments the circle should be made up
+     *                    of (higher number = smoother circle).
+     * <p>
+     * @since 3.1
+     */
+    public static void addCircle(DrawQueue queue, float centerX, float centerY,
+            float radius, int numSegments)
+    {
+        final float theta = 2f * 3.1415926f / numSegments;
+        final float cos = (float) FastTrig.cos(theta);
+        final float sin = (float) FastTrig.sin(theta);
+
+        // Start at angle = 0
+        float x = radius;
+        float y = 0;
+        float tmp;
+
+        queue.reserveVertices(numSegments);
+        for (int i = 0; i < numSegments; i++)
+        {
+            // Output vertex
+            queue.put(x + centerX, y + centerY);
+
+            // Apply the rotation matrix
+            tmp = x;
+            x = (cos * x) - (sin * y);
+            y = (sin * tmp) + (cos * y);
+        }
+    }
+
     /**
      * Creates the vertices for an elliptical shape.
      * <p>
@@ -1,9 +1,9 @@
 package org.lazywizard.radar.util;
 
 import java.awt.Color;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import com.fs.starfarer.api.graphics.SpriteAPI;
+import org.lazywizard.radar.RadarSettings;
 import static org.lwjgl.opengl.GL11.*;
 
 /**
@@ -11,19 +11,43 @@ import static org.lwjgl.opengl.GL11.*;
  * handles one unique sprite, and does not modify the underlying
  * {@link SpriteAPI}. All scaling is based on the state of the {@link SpriteAPI}
  * at the time of {@code SpriteBatch} instantiation.
+ * <p>
+ * Since 3.1, each sprite is expanded into a rotated quad when the batch is
+ * finished, and the entire batch is drawn from a {@link VertexBatch} with a
+ * single draw call. On cards that support instancing, each sprite is
+ * uploaded as a single record instead and expanded into a quad on the
+ * graphics card (see {@link RadarSettings#usesInstancedSprites()}). Sprites
+ * smaller than
+ * {@link SpriteBatch#setMaxPointSize(float)} pixels are drawn as untextured
+ * {@code GL_POINTS} instead, as at that size their facing and shape can't be
+ * made out anyway.
  *
  * @author LazyWizard
  * @since 2.2
  */
 // TODO: Rewrite to handle multiple SpriteAPIs
-// TODO: Rewrite to use buffers (clone of DrawQueue?)
 public class SpriteBatch
 {
     //private static final Logger Log = Logger.getLogger(SpriteBatch.class);
     private static final boolean DEBUG_MODE = false;
     private final int textureId, blendSrc, blendDest;
     private final float textureWidth, textureHeight, offsetScaleX, offsetScaleY, hScale;
-    private final List<DrawCall> toDraw = new ArrayList<>();
+    // Sprites are stored column by column in arrays reused between frames
+    private float[] xs = new float[16], ys = new float[16], angles = new float[16],
+            widths = new float[16], heights = new float[16];
+    private int[] colors = new int[16];
+    private TextureAtlas.Region[] regions = new TextureAtlas.Region[16];
+    private int numSprites = 0;
+    // With instancing, quads holds one record per sprite instead of four vertices
+    private final boolean instanced = InstancedSprites.isAvailable();
+    private final VertexBatch quads = new VertexBatch(instanced ? InstancedSprites.FORMAT
+            : VertexFormat.POSITION_2F_TEXCOORD_2F_COLOR_4UB, 64);
+    // Whether the texture only has an alpha channel; only checked if instanced
+    private int alphaTexture = -1;
+    // Tiny sprites, sorted by point size so each size is one draw call
+    private final VertexBatch points = new VertexBatch(VertexFormat.POSITION_2F_COLOR_4UB, 16);
+    private int[] pointSizes = new int[16], pointStarts = new int[0], pointCounts = new int[0];
+    private float maxPointSize = RadarSettings.getMaxPointContactSize();
     private boolean finished = false;
 
     public SpriteBatch(SpriteAPI sprite)
@@ -45,40 +69,224 @@ public class SpriteBatch
                 ? sprite.getCenterY() / (sprite.getHeight() * .5f) : 1f);
     }
 
+    /**
+     * Creates a SpriteBatch for drawing sprites from a {@link TextureAtlas}
+     * page. Sprites must be added with
+     * {@link SpriteBatch#add(float, float, float, float, TextureAtlas.Region, Color, float)},
+     * using regions on this page.
+     * <p>
+     * @param textureId The page's texture ID, from
+     *                  {@link TextureAtlas.Region#getTextureId()}.
+     * @param blendSrc  The source blend factor.
+     * @param blendDest The destination blend factor.
+     * <p>
+     * @since 3.1
+     */
+    public SpriteBatch(int textureId, int blendSrc, int blendDest)
+    {
+        this.textureId = textureId;
+        this.blendSrc = blendSrc;
+        this.blendDest = blendDest;
+        textureWidth = 1f;
+        textureHeight = 1f;
+        hScale = 1f;
+        offsetScaleX = 1f;
+        offsetScaleY = 1f;
+    }
+
+    /**
+     * Sets how small a sprite must be to be drawn as a single point instead
+     * of a textured quad. Takes effect the next time this batch is finished.
+     * <p>
+     * @param maxPointSize Sprites whose width and height are both less than
+     *                     this many pixels are drawn as points. 0 always
+     *                     draws textured quads. Defaults to
+     *                     {@link RadarSettings#getMaxPointContactSize()}.
+     * <p>
+     * @since 3.1
+     */
+    public void setMaxPointSize(float maxPointSize)
+    {
+        this.maxPointSize = Math.max(0f, maxPointSize);
+    }
+
+    /**
+     * Returns how small a sprite must be to be drawn as a single point.
+     * <p>
+     * @return The size in pixels below which sprites are drawn as points.
+     * <p>
+     * @since 3.1
+     */
+    public float getMaxPointSize()
+    {
+        return maxPointSize;
+    }
+
+    /**
+     * Packs a color and alpha modifier into the format used by the
+     * {@code packedRGBA} overloads of {@code add()}. Renderers that use the
+     * same color for many sprites can pack it once and reuse it.
+     * <p>
+     * @param color    The color to pack.
+     * @param alphaMod Multiplies {@code color}'s alpha channel by this number.
+     * <p>
+     * @return {@code color} packed as {@code 0xRRGGBBAA}.
+     * <p>
+     * @since 3.1
+     */
+    public static int packColor(Color color, float alphaMod)
+    {
+        final int value = color.getRGB();
+        return ((value & 0xFFFFFF) << 8) | ((int) (((value >>> 24) & 0xFF) * alphaMod) & 0xFF);
+    }
+
     // Size is height of sprite, width is automatically calculated
     public void add(float x, float y, float angle, float size, Color color, float alphaMod)
     {
-        add(x, y, angle, size * hScale, size, color, alphaMod);
+        add(x, y, angle, size * hScale, size, packColor(color, alphaMod));
     }
 
     public void add(float x, float y, float angle, float width, float height, Color color, float alphaMod)
+    {
+        add(x, y, angle, width, height, packColor(color, alphaMod));
+    }
+
+    /**
+     * Adds a sprite using a pre-packed color. Its width is calculated from
+     * the sprite's aspect ratio.
+     * <p>
+     * @param x          The x coordinate of the sprite's center.
+     * @param y          The y coordinate of the sprite's center.
+     * @param angle      The facing of the sprite, in degrees.
+     * @param size       The height of the sprite.
+     * @param packedRGBA The color of the sprite, packed as {@code 0xRRGGBBAA}
+     *                   (see {@link SpriteBatch#packColor(Color, float)}).
+     * <p>
+     * @since 3.1
+     */
+    public void add(float x, float y, float angle, float size, int packedRGBA)
+    {
+        add(x, y, angle, size * hScale, size, packedRGBA);
+    }
+
+    /**
+     * Adds a sprite using a pre-packed color.
+     * <p>
+     * @param x          The x coordinate of the sprite's center.
+     * @param y          The y coordinate of the sprite's center.
+     * @param angle      The facing of the sprite, in degrees.
+     * @param width      The width of the sprite.
+     * @param height     The height of the sprite.
+     * @param packedRGBA The color of the sprite, packed as {@code 0xRRGGBBAA}
+     *                   (see {@link SpriteBatch#packColor(Color, float)}).
+     * <p>
+     * @since 3.1
+     */
+    public void add(float x, float y, float angle, float width, float height, int packedRGBA)
+    {
+        addSprite(x, y, angle, width, height, packedRGBA, null);
+    }
+
+    /**
+     * Adds a sprite stored in a {@link TextureAtlas}. The region must be on
+     * the page this SpriteBatch was created for.
+     * <p>
+     * @param x        The x coordinate of the sprite's center.
+     * @param y        The y coordinate of the sprite's center.
+     * @param angle    The facing of the sprite, in degrees.
+     * @param size     The height of the sprite. Its width is calculated from
+     *                 the original sprite's aspect ratio.
+     * @param region   The part of the atlas containing the sprite.
+     * @param color    The color of the sprite.
+     * @param alphaMod Multiplies {@code color}'s alpha channel by this number.
+     * <p>
+     * @since 3.1
+     */
+    public void add(float x, float y, float angle, float size, TextureAtlas.Region region,
+            Color color, float alphaMod)
+    {
+        add(x, y, angle, size, region, packColor(color, alphaMod));
+    }
+
+    /**
+     * Adds a sprite stored in a {@link TextureAtlas} using a pre-packed
+     * color. The region must be on the page this SpriteBatch was created
+     * for.
+     * <p>
+     * @param x          The x coordinate of the sprite's center.
+     * @param y          The y coordinate of the sprite's center.
+     * @param angle      The facing of the sprite, in degrees.
+     * @param size       The height of the sprite. Its width is calculated
+     *                   from the original sprite's aspect ratio.
+     * @param region     The part of the atlas containing the sprite.
+     * @param packedRGBA The color of the sprite, packed as {@code 0xRRGGBBAA}
+     *                   (see {@link SpriteBatch#packColor(Color, float)}).
+     * <p>
+     * @since 3.1
+     */
+    public void add(float x, float y, float angle, float size, TextureAtlas.Region region,
+            int packedRGBA)
+    {
+        // A region on another page would be drawn with this page's texture
+        if (region.getTextureId() != textureId)
+        {
+            throw new RuntimeException("Region is on texture " + region.getTextureId()
+                    + ", but this SpriteBatch draws texture " + textureId + "!");
+        }
+
+        addSprite(x, y, angle, size * region.getAspectRatio(), size, packedRGBA, region);
+    }
+
+    private void addSprite(float x, float y, float angle, float width, float height,
+            int packedRGBA, TextureAtlas.Region region)
     {
         if (finished)
         {
             clear();
         }
 
-        toDraw.add(new DrawCall(x, y, angle, width, height, color, alphaMod));
+        if (numSprites == xs.length)
+        {
+            final int newLength = numSprites * 2;
+            xs = Arrays.copyOf(xs, newLength);
+            ys = Arrays.copyOf(ys, newLength);
+            angles = Arrays.copyOf(angles, newLength);
+            widths = Arrays.copyOf(widths, newLength);
+            heights = Arrays.copyOf(heights, newLength);
+            colors = Arrays.copyOf(colors, newLength);
+            regions = Arrays.copyOf(regions, newLength);
+        }
+
+        xs[numSprites] = x;
+        ys[numSprites] = y;
+        angles[numSprites] = angle - 90f;
+        widths[numSprites] = width;
+        heights[numSprites] = height;
+        colors[numSprites] = packedRGBA;
+        regions[numSprites] = region;
+        numSprites++;
         finished = false;
     }
 
     public int size()
     {
-        return toDraw.size();
+        return numSprites;
     }
 
     public void clear()
     {
-        toDraw.clear();
+        // Don't keep atlas regions reachable once they're no longer drawn
+        Arrays.fill(regions, 0, numSprites, null);
+        numSprites = 0;
         finished = false;
     }
 
     public boolean isEmpty()
     {
-        return toDraw.isEmpty();
+        return numSprites == 0;
     }
 
-    // Does nothing for now, usage is enforced for later move to buffers
+    // Expands every sprite into a quad and uploads them all at once
     public void finish()
     {
         if (finished)
@@ -86,83 +294,285 @@ public class SpriteBatch
             throw new RuntimeException("SpriteBatch is already finished!");
         }
 
+        // Pick out sprites too small to show their facing
+        final int numPoints = sortPoints();
+        quads.clear();
+
+        // Empty batches are never drawn, so there's nothing to upload
+        if (numPoints == numSprites)
+        {
+            finished = true;
+            return;
+        }
+
+        quads.reserveVertices((numSprites - numPoints) * (instanced ? 1 : 4));
+        for (int x = 0; x < numSprites; x++)
+        {
+            if (pointSizes[x] > 0)
+            {
+                continue;
+            }
+
+            // Atlas sprites each have their own texture coordinates and center
+            final TextureAtlas.Region region = regions[x];
+            final float u1 = (region == null ? 0f : region.getU1()),
+                    v1 = (region == null ? 0f : region.getV1()),
+                    u2 = (region == null ? textureWidth : region.getU2()),
+                    v2 = (region == null ? textureHeight : region.getV2()),
+                    offsetX = (region == null ? offsetScaleX : region.getOffsetScaleX()),
+                    offsetY = (region == null ? offsetScaleY : region.getOffsetScaleY());
+
+            // The graphics card rotates and expands instanced sprites itself
+            final double angle = Math.toRadians(angles[x]);
+            if (instanced)
+            {
+                quads.putFloat(xs[x]).putFloat(ys[x]).putFloat(widths[x]).putFloat(heights[x])
+                        .putFloat(u1).putFloat(v1).putFloat(u2).putFloat(v2)
+                        .putFloat((float) angle).putFloat(offsetX).putFloat(offsetY)
+                        .putColor(colors[x]);
+                continue;
+            }
+
+            // Same transform the sprite would get from translate/rotate/translate
+            final float cos = (float) Math.cos(angle), sin = (float) Math.sin(angle),
+                    left = (-widths[x] * 0.5f) * offsetX,
+                    bottom = (-heights[x] * 0.5f) * offsetY,
+                    right = left + widths[x], top = bottom + heights[x];
+            putCorner(x, cos, sin, left, bottom, u1, v1);
+            putCorner(x, cos, sin, right, bottom, u2, v1);
+            putCorner(x, cos, sin, right, top, u2, v2);
+            putCorner(x, cos, sin, left, top, u1, v2);
+        }
+
+        // Instance records are never drawn as vertices, the mode only groups them
+        quads.finishShape(instanced ? GL_POINTS : GL_QUADS);
+        quads.finish();
         finished = true;
     }
 
-    public void draw()
+    // Finds every sprite that should be drawn as a point and writes them to
+    // the point batch grouped by size, returning how many there are
+    private int sortPoints()
     {
-        if (!finished)
+        if (pointSizes.length < numSprites)
         {
-            throw new RuntimeException("Must call finish() before drawing!");
+            pointSizes = new int[xs.length];
         }
 
-        if (toDraw.isEmpty())
+        final int maxSize = (int) Math.ceil(maxPointSize);
+        if (pointCounts.length != maxSize + 1)
         {
-            return;
+            pointStarts = new int[maxSize + 1];
+            pointCounts = new int[maxSize + 1];
         }
+        Arrays.fill(pointCounts, 0);
 
-        glBlendFunc(blendSrc, blendDest);
-        glBindTexture(GL_TEXTURE_2D, textureId);
-        for (DrawCall call : toDraw)
+        int numPoints = 0;
+        for (int x = 0; x < numSprites; x++)
         {
-            glPushMatrix();
+            final float size = Math.max(widths[x], heights[x]);
+            pointSizes[x] = (size < maxPointSize ? Math.max(1, Math.round(size)) : 0);
+            if (pointSizes[x] > 0)
+            {
+                pointCounts[pointSizes[x]]++;
+                numPoints++;
+            }
+        }
 
-            if (DEBUG_MODE)
+        points.clear();
+        if (numPoints == 0)
+        {
+            return 0;
+        }
+
+        points.reserveVertices(numPoints);
+        int start = 0;
+        for (int size = 1; size <= maxSize; size++)
+        {
+            pointStarts[size] = start;
+            start += pointCounts[size];
+            if (pointCounts[size] == 0)
             {
-                glDisable(GL_TEXTURE_2D);
-                glPointSize(3f);
-                glColor4f(1f, 1f, 1f, 1f);
-                glBegin(GL_POINTS);
-                glVertex2f(call.x, call.y);
-                glEnd();
-                glEnable(GL_TEXTURE_2D);
+                continue;
             }
 
-            glTranslatef(call.x, call.y, 0f);
-            glRotatef(call.angle, 0f, 0f, 1f);
-            glTranslatef((-call.width * 0.5f) * offsetScaleX, (-call.height * 0.5f) * offsetScaleY, 0f);
-
-            glColor4ub(call.color[0], call.color[1], call.color[2], call.color[3]);
-            glBegin(GL_QUADS);
-            glTexCoord2f(0f, 0f);
-            glVertex2f(0f, 0f);
-            glTexCoord2f(textureWidth, 0f);
-            glVertex2f(call.width, 0f);
-            glTexCoord2f(textureWidth, textureHeight);
-            glVertex2f(call.width, call.height);
-            glTexCoord2f(0f, textureHeight);
-            glVertex2f(0f, call.height);
-            glEnd();
-            glPopMatrix();
+            for (int x = 0; x < numSprites; x++)
+            {
+                if (pointSizes[x] == size)
+                {
+                    points.putFloat(xs[x]).putFloat(ys[x]).putColor(colors[x]);
+                }
+            }
+        }
+
+        points.finishShape(GL_POINTS);
+        points.finish();
+        return numPoints;
+    }
+
+    private void putCorner(int sprite, float cos, float sin, float localX,
+            float localY, float texX, float texY)
+    {
+        quads.putFloat(xs[sprite] + (localX * cos) - (localY * sin))
+                .putFloat(ys[sprite] + (localX * sin) + (localY * cos))
+                .putFloat(texX).putFloat(texY)
+                .putColor(colors[sprite]);
+    }
+
+    /**
+     * Empties this batch and releases its regions of the shared vertex
+     * buffer immediately, instead of when it's garbage collected. The batch
+     * can still be refilled and finished afterwards.
+     * <p>
+     * @since 3.1
+     */
+    public void dispose()
+    {
+        clear();
+        quads.dispose();
+        points.dispose();
+    }
+
+    // The following are used by SpriteBatchManager to draw many batches
+    // while only changing OpenGL state when it actually differs
+    int getTextureId()
+    {
+        return textureId;
+    }
+
+    int getBlendSrc()
+    {
+        return blendSrc;
+    }
+
+    int getBlendDest()
+    {
+        return blendDest;
+    }
+
+    boolean isFinished()
+    {
+        return finished;
+    }
+
+    boolean hasQuads()
+    {
+        return !quads.isEmpty();
+    }
+
+    boolean hasPoints()
+    {
+        return !points.isEmpty();
+    }
+
+    boolean isInstanced()
+    {
+        return instanced;
+    }
+
+    // Sets up the arrays (and shader, if instanced) that drawQuads() uses
+    // Must be passed the isInstanced() of every batch drawn before endQuads()
+    static void beginQuads(boolean instanced)
+    {
+        if (instanced)
+        {
+            InstancedSprites.begin();
+        }
+        else
+        {
+            VertexFormat.POSITION_2F_TEXCOORD_2F_COLOR_4UB.enableArrays();
         }
     }
 
-    private static class DrawCall
+    static void endQuads(boolean instanced)
     {
-        private final float x, y, angle, width, height;
-        private final byte[] color;
+        if (instanced)
+        {
+            InstancedSprites.end();
+        }
+        else
+        {
+            VertexFormat.POSITION_2F_TEXCOORD_2F_COLOR_4UB.disableArrays();
+        }
+    }
 
-        private static byte[] getColorBytes(Color color, float alphaMod)
+    // Expects the texture to be bound and beginQuads() to have been called
+    void drawQuads()
+    {
+        if (!instanced)
         {
-            final int value = color.getRGB();
-            return new byte[]
+            quads.draw();
+            return;
+        }
+
+        // Alpha-only textures are tinted differently, see InstancedSprites
+        if (alphaTexture < 0)
+        {
+            final int format = glGetTexLevelParameteri(GL_TEXTURE_2D, 0,
+                    GL_TEXTURE_INTERNAL_FORMAT);
+            alphaTexture = (format == GL_ALPHA || format == GL_ALPHA8 ? 1 : 0);
+        }
+
+        InstancedSprites.draw(quads, alphaTexture == 1);
+    }
+
+    // Expects texturing to be disabled and the point arrays to be enabled
+    void drawPoints()
+    {
+        for (int size = 1; size < pointCounts.length; size++)
+        {
+            if (pointCounts[size] > 0)
             {
-                (byte) ((value >> 16) & 0xFF),
-                (byte) ((value >> 8) & 0xFF),
-                (byte) (value & 0xFF),
-                (byte) (Math.round((value >> 24) & 0xFF) * alphaMod)
-            };
-        }
-
-        private DrawCall(float x, float y, float angle, float width, float height,
-                Color color, float alphaMod)
-        {
-            this.x = x;
-            this.y = y;
-            this.angle = angle - 90f;
-            this.width = width;
-            this.height = height;
-            this.color = getColorBytes(color, alphaMod);
+                glPointSize(size);
+                points.draw(GL_POINTS, pointStarts[size], pointCounts[size]);
+            }
+        }
+    }
+
+    public void draw()
+    {
+        if (!finished)
+        {
+            throw new RuntimeException("Must call finish() before drawing!");
+        }
+
+        if (numSprites == 0)
+        {
+            return;
+        }
+
+        glBlendFunc(blendSrc, blendDest);
+        if (hasQuads())
+        {
+            glBindTexture(GL_TEXTURE_2D, textureId);
+            beginQuads(instanced);
+            drawQuads();
+            endQuads(instanced);
+        }
+
+        if (hasPoints())
+        {
+            glDisable(GL_TEXTURE_2D);
+            final VertexFormat format = points.getFormat();
+            format.enableArrays();
+            drawPoints();
+            format.disableArrays();
+            glPointSize(1f);
+            glEnable(GL_TEXTURE_2D);
+        }
+
+        if (DEBUG_MODE)
+        {
+            glDisable(GL_TEXTURE_2D);
+            glPointSize(3f);
+            glColor4f(1f, 1f, 1f, 1f);
+            glBegin(GL_POINTS);
+            for (int x = 0; x < numSprites; x++)
+            {
+                glVertex2f(xs[x], ys[x]);
+            }
+            glEnd();
+            glEnable(GL_TEXTURE_2D);
         }
     }
 }
@@ -0,0 +1,240 @@
+package org.lazywizard.radar.util;
+
+import java.util.Arrays;
+import org.lazywizard.radar.CommonRadar;
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Collects finished {@link SpriteBatch}es from every renderer and draws them
+ * together, so the texture, blending and stencil state shared between
+ * renderers is only set up once. Owned by the radar plugin; renderers get it
+ * from {@link CommonRadar#getSpriteBatchManager()}.
+ * <p>
+ * Queued batches are drawn sorted by layer, then texture, then blend mode,
+ * with OpenGL state only changed when it differs from the previous batch.
+ * Lower layers are drawn first. The radar flushes the queue before every
+ * renderer that doesn't implement
+ * {@link org.lazywizard.radar.renderers.SpriteOnlyRenderer}, and again at
+ * the end of the frame, so sprites are never drawn over anything a later
+ * renderer draws. A renderer that draws other geometry over sprites it has
+ * queued itself must call {@link SpriteBatchManager#flush()} first.
+ * <p>
+ * Built-in renderers use their default render order as their layer.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public class SpriteBatchManager
+{
+    private final CommonRadar<?> radar;
+    private SpriteBatch[] batches = new SpriteBatch[16];
+    private int[] layers = new int[16];
+    private int numQueued = 0;
+
+    /**
+     * Creates a new, empty SpriteBatchManager. Only used by the radar plugin.
+     * <p>
+     * @param radar The radar whose stencil is used while drawing.
+     * <p>
+     * @since 3.1
+     */
+    public SpriteBatchManager(CommonRadar<?> radar)
+    {
+        this.radar = radar;
+    }
+
+    /**
+     * Queues a finished batch to be drawn at the next flush. Only queues the
+     * batch for the current frame; it must be queued again every frame it
+     * should be drawn. Empty batches are ignored.
+     * <p>
+     * @param batch The batch to draw. Must not be changed until it's drawn.
+     * @param layer Where to draw the batch relative to other queued batches.
+     *              Lower layers are drawn first.
+     * <p>
+     * @since 3.1
+     */
+    public void add(SpriteBatch batch, int layer)
+    {
+        if (!batch.isFinished())
+        {
+            throw new RuntimeException("Must call finish() before queuing a SpriteBatch!");
+        }
+
+        if (batch.isEmpty())
+        {
+            return;
+        }
+
+        if (numQueued == batches.length)
+        {
+            batches = Arrays.copyOf(batches, numQueued * 2);
+            layers = Arrays.copyOf(layers, numQueued * 2);
+        }
+
+        // Insertion sort, as only a handful of batches are queued per flush
+        // Batches that compare equal keep the order they were queued in
+        int index = numQueued++;
+        while (index > 0 && compare(batch, layer, batches[index - 1], layers[index - 1]) < 0)
+        {
+            batches[index] = batches[index - 1];
+            layers[index] = layers[index - 1];
+            index--;
+        }
+
+        batches[index] = batch;
+        layers[index] = layer;
+    }
+
+    private static int compare(SpriteBatch batch, int layer, SpriteBatch other, int otherLayer)
+    {
+        if (layer != otherLayer)
+        {
+            return (layer < otherLayer ? -1 : 1);
+        }
+
+        if (batch.getTextureId() != other.getTextureId())
+        {
+            return (batch.getTextureId() < other.getTextureId() ? -1 : 1);
+        }
+
+        if (batch.getBlendSrc() != other.getBlendSrc())
+        {
+            return (batch.getBlendSrc() < other.getBlendSrc() ? -1 : 1);
+        }
+
+        return Integer.compare(batch.getBlendDest(), other.getBlendDest());
+    }
+
+    /**
+     * Returns how many batches are waiting to be drawn.
+     * <p>
+     * @return The number of batches queued since the last flush.
+     * <p>
+     * @since 3.1
+     */
+    public int getNumQueued()
+    {
+        return numQueued;
+    }
+
+    /**
+     * Draws every queued batch, then empties the queue. Does nothing if no
+     * batches are queued. Leaves texturing, blending and the radar stencil
+     * disabled.
+     * <p>
+     * @since 3.1
+     */
+    public void flush()
+    {
+        if (numQueued == 0)
+        {
+            return;
+        }
+
+        radar.enableStencilTest();
+        glEnable(GL_BLEND);
+        glEnable(GL_TEXTURE_2D);
+
+        int boundTexture = -1, blendSrc = -1, blendDest = -1, layerStart = 0;
+        while (layerStart < numQueued)
+        {
+            int layerEnd = layerStart + 1;
+            while (layerEnd < numQueued && layers[layerEnd] == layers[layerStart])
+            {
+                layerEnd++;
+            }
+
+            // Textured quads for the whole layer first, then its points
+            // Array setup follows each batch's own format, in case they differ
+            boolean hasPoints = false, quadsBegun = false, instanced = false;
+            for (int x = layerStart; x < layerEnd; x++)
+            {
+                final SpriteBatch batch = batches[x];
+                hasPoints |= batch.hasPoints();
+                if (!batch.hasQuads())
+                {
+                    continue;
+                }
+
+                if (!quadsBegun || batch.isInstanced() != instanced)
+                {
+                    if (quadsBegun)
+                    {
+                        SpriteBatch.endQuads(instanced);
+                    }
+
+                    instanced = batch.isInstanced();
+                    SpriteBatch.beginQuads(instanced);
+                    quadsBegun = true;
+                }
+
+                if (batch.getTextureId() != boundTexture)
+                {
+                    boundTexture = batch.getTextureId();
+                    glBindTexture(GL_TEXTURE_2D, boundTexture);
+                }
+                if (batch.getBlendSrc() != blendSrc || batch.getBlendDest() != blendDest)
+                {
+                    blendSrc = batch.getBlendSrc();
+                    blendDest = batch.getBlendDest();
+                    glBlendFunc(blendSrc, blendDest);
+                }
+
+                batch.drawQuads();
+            }
+
+            if (quadsBegun)
+            {
+                SpriteBatch.endQuads(instanced);
+            }
+
+            if (hasPoints)
+            {
+                glDisable(GL_TEXTURE_2D);
+                final VertexFormat pointFormat = VertexFormat.POSITION_2F_COLOR_4UB;
+                pointFormat.enableArrays();
+                for (int x = layerStart; x < layerEnd; x++)
+                {
+                    final SpriteBatch batch = batches[x];
+                    if (!batch.hasPoints())
+                    {
+                        continue;
+                    }
+
+                    if (batch.getBlendSrc() != blendSrc || batch.getBlendDest() != blendDest)
+                    {
+                        blendSrc = batch.getBlendSrc();
+                        blendDest = batch.getBlendDest();
+                        glBlendFunc(blendSrc, blendDest);
+                    }
+
+                    batch.drawPoints();
+                }
+                pointFormat.disableArrays();
+                glPointSize(1f);
+                glEnable(GL_TEXTURE_2D);
+            }
+
+            layerStart = layerEnd;
+        }
+
+        glDisable(GL_TEXTURE_2D);
+        glDisable(GL_BLEND);
+        radar.disableStencilTest();
+
+        Arrays.fill(batches, 0, numQueued, null);
+        numQueued = 0;
+    }
+
+    /**
+     * Empties the queue without drawing anything.
+     * <p>
+     * @since 3.1
+     */
+    public void clear()
+    {
+        Arrays.fill(batches, 0, numQueued, null);
+        numQueued = 0;
+    }
+}
@@ -0,0 +1,160 @@
+package org.lazywizard.radar.util;
+
+import java.nio.ByteBuffer;
+import com.fs.starfarer.api.graphics.SpriteAPI;
+import org.lwjgl.BufferUtils;
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * A downscaled copy of a sprite's pixels, read back from its texture. Pixels
+ * are either four byte RGBA or, for alpha-only images, a single alpha byte.
+ * <p>
+ * Only used internally by {@link TextureAtlas} and {@link IconCache}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+final class SpriteImage
+{
+    private final int width, height;
+    private final boolean alphaOnly;
+    private final ByteBuffer pixels;
+
+    /**
+     * Reads a sprite back from its texture and shrinks it to fit within
+     * {@code maxSize}, keeping its aspect ratio. Must be called on the
+     * rendering thread, and changes the texture bound to
+     * {@link org.lwjgl.opengl.GL11#GL_TEXTURE_2D}.
+     *
+     * @param sprite    The sprite to read. Only the part of its texture the
+     *                  sprite actually covers, starting at its texture
+     *                  offset, is copied.
+     * @param maxSize   The largest width or height of the result.
+     * @param alphaOnly Whether to only keep the sprite's alpha channel.
+     *
+     * @return The downscaled sprite. Must be freed with
+     *         {@link SpriteImage#free()} once uploaded.
+     */
+    static SpriteImage read(SpriteAPI sprite, int maxSize, boolean alphaOnly)
+    {
+        glBindTexture(GL_TEXTURE_2D, sprite.getTextureId());
+        final int texWidth = glGetTexLevelParameteri(GL_TEXTURE_2D, 0, GL_TEXTURE_WIDTH),
+                texHeight = glGetTexLevelParameteri(GL_TEXTURE_2D, 0, GL_TEXTURE_HEIGHT),
+                srcX = Math.max(0, Math.min(texWidth - 1, Math.round(sprite.getTexX() * texWidth))),
+                srcY = Math.max(0, Math.min(texHeight - 1, Math.round(sprite.getTexY() * texHeight))),
+                srcWidth = Math.max(1, Math.min(texWidth - srcX,
+                        Math.round(sprite.getTextureWidth() * texWidth))),
+                srcHeight = Math.max(1, Math.min(texHeight - srcY,
+                        Math.round(sprite.getTextureHeight() * texHeight)));
+        final ByteBuffer source = BufferUtils.createByteBuffer(texWidth * texHeight * 4);
+        final int oldPack = glGetInteger(GL_PACK_ALIGNMENT);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glGetTexImage(GL_TEXTURE_2D, 0, GL_RGBA, GL_UNSIGNED_BYTE, source);
+        glPixelStorei(GL_PACK_ALIGNMENT, oldPack);
+
+        final float scale = Math.min(1f, maxSize / (float) Math.max(srcWidth, srcHeight));
+        final int width = Math.max(1, Math.round(srcWidth * scale)),
+                height = Math.max(1, Math.round(srcHeight * scale));
+        final ByteBuffer pixels = downscale(source, texWidth, srcX, srcY, srcWidth, srcHeight,
+                width, height, alphaOnly);
+        NativeBuffers.free(source);
+        return new SpriteImage(width, height, alphaOnly, pixels);
+    }
+
+    // Box filters the used part of an RGBA texture down to the requested size
+    // Colors are weighted by alpha so transparent texels don't darken the edges
+    private static ByteBuffer downscale(ByteBuffer source, int sourceWidth, int srcX, int srcY,
+            int srcWidth, int srcHeight, int width, int height, boolean alphaOnly)
+    {
+        final ByteBuffer result = BufferUtils.createByteBuffer(
+                width * height * (alphaOnly ? 1 : 4));
+        for (int y = 0; y < height; y++)
+        {
+            final int y0 = srcY + y * srcHeight / height,
+                    y1 = Math.max(y0 + 1, srcY + (y + 1) * srcHeight / height);
+            for (int x = 0; x < width; x++)
+            {
+                final int x0 = srcX + x * srcWidth / width,
+                        x1 = Math.max(x0 + 1, srcX + (x + 1) * srcWidth / width);
+                long red = 0, green = 0, blue = 0, alpha = 0;
+                for (int sy = y0; sy < y1; sy++)
+                {
+                    for (int sx = x0; sx < x1; sx++)
+                    {
+                        final int index = (sy * sourceWidth + sx) * 4,
+                                texelAlpha = source.get(index + 3) & 0xFF;
+                        red += (source.get(index) & 0xFF) * texelAlpha;
+                        green += (source.get(index + 1) & 0xFF) * texelAlpha;
+                        blue += (source.get(index + 2) & 0xFF) * texelAlpha;
+                        alpha += texelAlpha;
+                    }
+                }
+
+                final int numTexels = (x1 - x0) * (y1 - y0);
+                if (!alphaOnly)
+                {
+                    result.put((byte) (alpha == 0 ? 0 : red / alpha))
+                            .put((byte) (alpha == 0 ? 0 : green / alpha))
+                            .put((byte) (alpha == 0 ? 0 : blue / alpha));
+                }
+                result.put((byte) (alpha / numTexels));
+            }
+        }
+
+        result.flip();
+        return result;
+    }
+
+    private SpriteImage(int width, int height, boolean alphaOnly, ByteBuffer pixels)
+    {
+        this.width = width;
+        this.height = height;
+        this.alphaOnly = alphaOnly;
+        this.pixels = pixels;
+    }
+
+    int getWidth()
+    {
+        return width;
+    }
+
+    int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the OpenGL pixel format of this image's data.
+     *
+     * @return {@link org.lwjgl.opengl.GL11#GL_ALPHA} for alpha-only images,
+     *         {@link org.lwjgl.opengl.GL11#GL_RGBA} otherwise.
+     */
+    int getFormat()
+    {
+        return (alphaOnly ? GL_ALPHA : GL_RGBA);
+    }
+
+    /**
+     * Uploads this image into part of the texture currently bound to
+     * {@link org.lwjgl.opengl.GL11#GL_TEXTURE_2D}.
+     *
+     * @param x The x offset of the image within the texture, in texels.
+     * @param y The y offset of the image within the texture, in texels.
+     */
+    void upload(int x, int y)
+    {
+        final int oldUnpack = glGetInteger(GL_UNPACK_ALIGNMENT);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, width, height, getFormat(),
+                GL_UNSIGNED_BYTE, pixels);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, oldUnpack);
+    }
+
+    /**
+     * Frees this image's pixel data. The image can't be uploaded afterwards.
+     */
+    void free()
+    {
+        NativeBuffers.free(pixels);
+    }
+}
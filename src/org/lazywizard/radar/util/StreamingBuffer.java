@@ -0,0 +1,121 @@
+package org.lazywizard.radar.util;
+
+import java.nio.ByteBuffer;
+import org.lwjgl.opengl.GLSync;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Wraps a single vertex buffer object that is split into a ring of equally
+ * sized regions. Each upload writes into the next region using an
+ * unsynchronized mapping, and a fence is placed after the previous region's
+ * draw calls so a region is only reused once the GPU has finished reading it.
+ * If the GPU still hasn't caught up, the buffer's storage is orphaned instead
+ * of waiting on it.
+ * <p>
+ * Only used internally by {@link DrawQueue}, and only when
+ * {@link org.lazywizard.radar.RadarSettings#usesStreamingUploads()} is
+ * {@code true}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+final class StreamingBuffer
+{
+    private static final int NUM_REGIONS = 3;
+    private static final int MAP_FLAGS = GL_MAP_WRITE_BIT
+            | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_UNSYNCHRONIZED_BIT;
+    private final GLSync[] fences = new GLSync[NUM_REGIONS];
+    private final int bufferId, drawFlag;
+    private ByteBuffer mapped = null;
+    private int regionSize = 0, currentRegion = -1;
+
+    StreamingBuffer(int bufferId, int drawFlag)
+    {
+        this.bufferId = bufferId;
+        this.drawFlag = drawFlag;
+    }
+
+    // Discards the old storage (the driver keeps it alive until the GPU is
+    // done with it) and allocates fresh storage for the entire ring
+    private void orphan(int newRegionSize)
+    {
+        regionSize = newRegionSize;
+        glBufferData(GL_ARRAY_BUFFER, (long) regionSize * NUM_REGIONS, drawFlag);
+        releaseFences();
+    }
+
+    /**
+     * Uploads the remaining contents of {@code data} into the next free region
+     * of the ring. {@code data}'s position is left unchanged.
+     *
+     * @param data The data to upload.
+     * <p>
+     * @return The byte offset of the region {@code data} was written to, for
+     *         use with {@code gl*Pointer()}.
+     */
+    int upload(ByteBuffer data)
+    {
+        glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+
+        // All draw calls using the current region have been issued by now
+        if (currentRegion >= 0)
+        {
+            fences[currentRegion] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+
+        final int size = data.remaining();
+        currentRegion = (currentRegion + 1) % NUM_REGIONS;
+        if (size > regionSize)
+        {
+            // Grow to the same capacity as the native buffer that's feeding us
+            orphan(data.capacity());
+            currentRegion = 0;
+        }
+        else if (fences[currentRegion] != null)
+        {
+            // Never stall waiting on the GPU; if it hasn't finished with this
+            // region yet, start over with new storage instead
+            final int status = glClientWaitSync(fences[currentRegion], 0, 0L);
+            if (status == GL_TIMEOUT_EXPIRED || status == GL_WAIT_FAILED)
+            {
+                orphan(regionSize);
+                currentRegion = 0;
+            }
+            else
+            {
+                glDeleteSync(fences[currentRegion]);
+                fences[currentRegion] = null;
+            }
+        }
+
+        final int offset = currentRegion * regionSize;
+        if (size > 0)
+        {
+            final int position = data.position();
+            mapped = glMapBufferRange(GL_ARRAY_BUFFER, offset, size, MAP_FLAGS, mapped);
+            mapped.put(data);
+            data.position(position);
+
+            // Mapping can fail to unmap if the context lost the storage
+            // In that case the data will just be missing for one update
+            glUnmapBuffer(GL_ARRAY_BUFFER);
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        return offset;
+    }
+
+    void releaseFences()
+    {
+        for (int x = 0; x < NUM_REGIONS; x++)
+        {
+            if (fences[x] != null)
+            {
+                glDeleteSync(fences[x]);
+                fences[x] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package org.lazywizard.radar.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.fs.starfarer.api.Global;
+import com.fs.starfarer.api.graphics.SpriteAPI;
+import org.apache.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+
+/**
+ * Packs downscaled copies of many sprites into a few large textures
+ * ("pages"), so sprites that would each need their own texture bind and
+ * {@link SpriteBatch} can be drawn together. Each sprite is read back from its
+ * texture once when it's added, shrunk to at most the atlas's icon size, and
+ * copied into the first page with room for it. A new page is created
+ * whenever the current one fills up.
+ * <p>
+ * Sprites are identified by their texture ID and the part of the texture
+ * they cover, so adding the same sprite twice returns the existing
+ * {@link Region}, while sprites sharing a texture get a region each. Every
+ * atlas created is disposed by {@link TextureAtlas#disposeAll()}, which the
+ * radar calls at the end of each battle.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public class TextureAtlas
+{
+    private static final Logger Log = Global.getLogger(TextureAtlas.class);
+    // Empty space around each icon, so filtering never samples a neighbor
+    private static final int PADDING = 2;
+    private static final List<TextureAtlas> liveAtlases = new ArrayList<>();
+    private final int pageSize, maxIconSize;
+    private final boolean alphaOnly;
+    private final List<Integer> pages = new ArrayList<>();
+    // Keyed by texture ID; usually one region each, unless sprites share a texture
+    private final Map<Integer, List<Region>> regions = new HashMap<>();
+    private int numRegions = 0;
+    // Icons are packed left to right in shelves as tall as their tallest icon
+    private int shelfX = 0, shelfY = 0, shelfHeight = 0;
+    private boolean disposed = false;
+
+    /**
+     * Disposes of every {@link TextureAtlas} that hasn't been disposed yet.
+     * Called by the radar at the end of each battle, so you should never need
+     * to call it yourself.
+     * <p>
+     * @since 3.1
+     */
+    public static void disposeAll()
+    {
+        for (TextureAtlas atlas : new ArrayList<>(liveAtlases))
+        {
+            atlas.dispose();
+        }
+    }
+
+    /**
+     * Creates a new, empty TextureAtlas. No textures are allocated until the
+     * first sprite is added.
+     * <p>
+     * @param pageSize    The width and height of each page texture. Clamped to
+     *                    the largest texture size the card supports.
+     * @param maxIconSize The largest width or height of a sprite in the atlas.
+     *                    Larger sprites are scaled down to fit, keeping their
+     *                    aspect ratio.
+     * <p>
+     * @since 3.1
+     */
+    public TextureAtlas(int pageSize, int maxIconSize)
+    {
+        this(pageSize, maxIconSize, false);
+    }
+
+    /**
+     * Creates a new, empty TextureAtlas. No textures are allocated until the
+     * first sprite is added.
+     * <p>
+     * @param pageSize    The width and height of each page texture. Clamped to
+     *                    the largest texture size the card supports.
+     * @param maxIconSize The largest width or height of a sprite in the atlas.
+     *                    Larger sprites are scaled down to fit, keeping their
+     *                    aspect ratio.
+     * @param alphaOnly   If {@code true}, only each sprite's alpha channel is
+     *                    kept, so sprites take on the color they're drawn
+     *                    with and pages use a quarter of the memory.
+     * <p>
+     * @since 3.1
+     */
+    public TextureAtlas(int pageSize, int maxIconSize, boolean alphaOnly)
+    {
+        this.alphaOnly = alphaOnly;
+        this.pageSize = Math.min(pageSize, glGetInteger(GL_MAX_TEXTURE_SIZE));
+        this.maxIconSize = Math.max(1, Math.min(maxIconSize, this.pageSize - (PADDING * 2)));
+        liveAtlases.add(this);
+    }
+
+    /**
+     * Returns the region of the atlas containing a sprite, if it's been
+     * added.
+     * <p>
+     * @param sprite The sprite to look up.
+     * <p>
+     * @return The {@link Region} containing {@code sprite}, or {@code null}
+     *         if it hasn't been added to this atlas.
+     * <p>
+     * @since 3.1
+     */
+    public Region getRegion(SpriteAPI sprite)
+    {
+        final List<Region> candidates = regions.get(sprite.getTextureId());
+        if (candidates == null)
+        {
+            return null;
+        }
+
+        for (int x = 0; x < candidates.size(); x++)
+        {
+            final Region region = candidates.get(x);
+            if (region.matches(sprite))
+            {
+                return region;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a sprite to the atlas, if it isn't already in it. Must be called
+     * on the rendering thread, and changes the texture bound to
+     * {@link org.lwjgl.opengl.GL11#GL_TEXTURE_2D}.
+     * <p>
+     * @param sprite The sprite to add. Only the part of its texture the sprite
+     *               actually covers is copied.
+     * <p>
+     * @return The {@link Region} of the atlas containing {@code sprite}.
+     * <p>
+     * @since 3.1
+     */
+    public Region add(SpriteAPI sprite)
+    {
+        if (disposed)
+        {
+            throw new RuntimeException("TextureAtlas has already been disposed!");
+        }
+
+        Region region = getRegion(sprite);
+        if (region != null)
+        {
+            return region;
+        }
+
+        // Read the sprite's texture back from the card and shrink it down to radar size
+        final SpriteImage icon = SpriteImage.read(sprite, maxIconSize, alphaOnly);
+        final int width = icon.getWidth(), height = icon.getHeight();
+
+        // Move to the next shelf or page if this icon doesn't fit on the current one
+        if (pages.isEmpty())
+        {
+            addPage();
+        }
+        if (shelfX + width + PADDING > pageSize)
+        {
+            shelfX = 0;
+            // The shelf's height already includes the padding below its icons
+            shelfY += shelfHeight;
+            shelfHeight = 0;
+        }
+        if (shelfY + height + (PADDING * 2) > pageSize)
+        {
+            addPage();
+        }
+
+        final int x = shelfX + PADDING, y = shelfY + PADDING, page = pages.size() - 1;
+        shelfX = x + width;
+        shelfHeight = Math.max(shelfHeight, height + PADDING);
+
+        glBindTexture(GL_TEXTURE_2D, pages.get(page));
+        icon.upload(x, y);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        icon.free();
+
+        region = new Region(pages.get(page), x / (float) pageSize, y / (float) pageSize,
+                (x + width) / (float) pageSize, (y + height) / (float) pageSize, sprite);
+        List<Region> sharing = regions.get(sprite.getTextureId());
+        if (sharing == null)
+        {
+            sharing = new ArrayList<>(1);
+            regions.put(sprite.getTextureId(), sharing);
+        }
+        sharing.add(region);
+        numRegions++;
+        return region;
+    }
+
+    private void addPage()
+    {
+        final int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+
+        // Start fully transparent so the padding between icons stays empty
+        final ByteBuffer empty = BufferUtils.createByteBuffer(
+                pageSize * pageSize * (alphaOnly ? 1 : 4));
+        final int oldUnpack = glGetInteger(GL_UNPACK_ALIGNMENT);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexImage2D(GL_TEXTURE_2D, 0, (alphaOnly ? GL_ALPHA8 : GL_RGBA8), pageSize, pageSize, 0,
+                (alphaOnly ? GL_ALPHA : GL_RGBA), GL_UNSIGNED_BYTE, empty);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, oldUnpack);
+        NativeBuffers.free(empty);
+
+        pages.add(id);
+        shelfX = 0;
+        shelfY = 0;
+        shelfHeight = 0;
+        Log.debug("Created atlas page " + pages.size() + " (" + pageSize + "x" + pageSize + ")");
+    }
+
+    /**
+     * Returns how many page textures this atlas is using.
+     * <p>
+     * @return The number of pages in this atlas.
+     * <p>
+     * @since 3.1
+     */
+    public int getNumPages()
+    {
+        return pages.size();
+    }
+
+    /**
+     * Returns how many sprites have been added to this atlas.
+     * <p>
+     * @return The number of sprites in this atlas.
+     * <p>
+     * @since 3.1
+     */
+    public int getNumSprites()
+    {
+        return numRegions;
+    }
+
+    /**
+     * Returns whether this atlas has been disposed.
+     * <p>
+     * @return {@code true} if {@link TextureAtlas#dispose()} has been called,
+     *         {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean isDisposed()
+    {
+        return disposed;
+    }
+
+    /**
+     * Deletes every page texture used by this atlas. The atlas can't be used
+     * again afterwards. Calling this more than once has no effect.
+     * <p>
+     * @since 3.1
+     */
+    public void dispose()
+    {
+        if (disposed)
+        {
+            return;
+        }
+
+        for (int id : pages)
+        {
+            glDeleteTextures(id);
+        }
+
+        pages.clear();
+        regions.clear();
+        numRegions = 0;
+        liveAtlases.remove(this);
+        disposed = true;
+    }
+
+    /**
+     * The part of a {@link TextureAtlas} page containing a single sprite.
+     * Also used for the standalone textures built by {@link IconCache}.
+     *
+     * @since 3.1
+     */
+    public static final class Region
+    {
+        private final int textureId;
+        private final float u1, v1, u2, v2, offsetScaleX, offsetScaleY, aspectRatio;
+        // The part of the source texture and size of the sprite this was built from
+        private final float texX, texY, texWidth, texHeight, spriteWidth, spriteHeight;
+
+        Region(int textureId, float u1, float v1, float u2, float v2, SpriteAPI sprite)
+        {
+            this.textureId = textureId;
+            this.u1 = u1;
+            this.v1 = v1;
+            this.u2 = u2;
+            this.v2 = v2;
+            texX = sprite.getTexX();
+            texY = sprite.getTexY();
+            texWidth = sprite.getTextureWidth();
+            texHeight = sprite.getTextureHeight();
+            spriteWidth = sprite.getWidth();
+            spriteHeight = sprite.getHeight();
+            aspectRatio = sprite.getWidth() / sprite.getHeight();
+            offsetScaleX = (sprite.getCenterX() > 0f
+                    ? sprite.getCenterX() / (sprite.getWidth() * .5f) : 1f);
+            offsetScaleY = (sprite.getCenterY() > 0f
+                    ? sprite.getCenterY() / (sprite.getHeight() * .5f) : 1f);
+        }
+
+        // Whether this region was built from the same part of the same sprite
+        boolean matches(SpriteAPI sprite)
+        {
+            return texX == sprite.getTexX() && texY == sprite.getTexY()
+                    && texWidth == sprite.getTextureWidth()
+                    && texHeight == sprite.getTextureHeight()
+                    && spriteWidth == sprite.getWidth() && spriteHeight == sprite.getHeight();
+        }
+
+        /**
+         * Returns the ID of the texture this region is on. Regions sharing a
+         * texture can be drawn by the same {@link SpriteBatch}.
+         * <p>
+         * @return The OpenGL texture ID of this region's page or icon.
+         * <p>
+         * @since 3.1
+         */
+        public int getTextureId()
+        {
+            return textureId;
+        }
+
+        public float getU1()
+        {
+            return u1;
+        }
+
+        public float getV1()
+        {
+            return v1;
+        }
+
+        public float getU2()
+        {
+            return u2;
+        }
+
+        public float getV2()
+        {
+            return v2;
+        }
+
+        public float getOffsetScaleX()
+        {
+            return offsetScaleX;
+        }
+
+        public float getOffsetScaleY()
+        {
+            return offsetScaleY;
+        }
+
+        /**
+         * Returns the original sprite's width divided by its height.
+         * <p>
+         * @return The aspect ratio of the sprite in this region.
+         * <p>
+         * @since 3.1
+         */
+        public float getAspectRatio()
+        {
+            return aspectRatio;
+        }
+    }
+}
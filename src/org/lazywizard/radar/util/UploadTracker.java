@@ -0,0 +1,145 @@
+package org.lazywizard.radar.util;
+
+import java.nio.ByteBuffer;
+import org.lwjgl.BufferUtils;
+import static org.lwjgl.opengl.GL15.*;
+
+/**
+ * Keeps a copy of the last data uploaded to a buffer object, so unchanged
+ * uploads can be skipped entirely and partially changed uploads can be
+ * narrowed down to just the regions that differ.
+ * <p>
+ * Data is compared in fixed-size chunks; consecutive dirty chunks are merged
+ * into a single {@code glBufferSubData()} call.
+ * <p>
+ * Only used internally by {@link DrawQueue}, and only when change tracking
+ * has been enabled with {@link DrawQueue#setTrackChanges(boolean)}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+final class UploadTracker
+{
+    static final int RESULT_SKIPPED = 0, RESULT_PARTIAL = 1, RESULT_FULL = 2;
+    private static final int CHUNK_SIZE = 256;
+    private ByteBuffer shadow = BufferUtils.createByteBuffer(0);
+    private boolean valid = false;
+
+    // Returns whether bytes [start, end) of data match the last upload
+    private boolean matches(ByteBuffer data, int start, int end)
+    {
+        int x = start;
+        for (; x + 8 <= end; x += 8)
+        {
+            if (data.getLong(x) != shadow.getLong(x))
+            {
+                return false;
+            }
+        }
+
+        for (; x < end; x++)
+        {
+            if (data.get(x) != shadow.get(x))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Copies bytes [start, end) of data into the shadow copy
+    private void copy(ByteBuffer data, int start, int end)
+    {
+        final int limit = data.limit();
+        data.limit(end).position(start);
+        shadow.limit(end).position(start);
+        shadow.put(data);
+        data.limit(limit).position(0);
+        shadow.clear();
+    }
+
+    /**
+     * Checks whether {@code data} is identical to the last data passed to this
+     * tracker, and remembers it if it isn't. {@code data}'s position must be
+     * zero, and will be left unchanged.
+     *
+     * @param data The data about to be uploaded.
+     * <p>
+     * @return {@code true} if the upload can be skipped, {@code false} if the
+     *         data has changed.
+     */
+    boolean isUnchanged(ByteBuffer data)
+    {
+        final int size = data.limit();
+        if (valid && size == shadow.capacity() && matches(data, 0, size))
+        {
+            return true;
+        }
+
+        if (shadow.capacity() != size)
+        {
+            NativeBuffers.free(shadow);
+            shadow = BufferUtils.createByteBuffer(size);
+        }
+
+        copy(data, 0, size);
+        valid = true;
+        return false;
+    }
+
+    /**
+     * Uploads only the parts of {@code data} that have changed since the last
+     * upload to the buffer currently bound to {@code GL_ARRAY_BUFFER}. If the
+     * size of the data has changed, the entire buffer is replaced instead.
+     * {@code data}'s position must be zero, and will be left unchanged.
+     *
+     * @param data     The data to upload.
+     * @param drawFlag The usage hint used if the buffer must be reallocated.
+     * <p>
+     * @return {@link UploadTracker#RESULT_SKIPPED} if nothing changed,
+     *         {@link UploadTracker#RESULT_PARTIAL} if only some regions were
+     *         uploaded, or {@link UploadTracker#RESULT_FULL} if the whole
+     *         buffer was replaced.
+     */
+    int upload(ByteBuffer data, int drawFlag)
+    {
+        final int size = data.limit();
+        if (!valid || size != shadow.capacity())
+        {
+            glBufferData(GL_ARRAY_BUFFER, data, drawFlag);
+            isUnchanged(data);
+            return RESULT_FULL;
+        }
+
+        int dirtyStart = -1, numRanges = 0;
+        for (int chunk = 0; chunk < size; chunk += CHUNK_SIZE)
+        {
+            final int chunkEnd = Math.min(size, chunk + CHUNK_SIZE);
+            final boolean dirty = !matches(data, chunk, chunkEnd);
+            if (dirty && dirtyStart < 0)
+            {
+                dirtyStart = chunk;
+            }
+
+            // Upload each run of dirty chunks as soon as it ends
+            if (dirtyStart >= 0 && (!dirty || chunkEnd == size))
+            {
+                final int dirtyEnd = (dirty ? chunkEnd : chunk);
+                copy(data, dirtyStart, dirtyEnd);
+                data.limit(dirtyEnd).position(dirtyStart);
+                glBufferSubData(GL_ARRAY_BUFFER, dirtyStart, data);
+                data.limit(size).position(0);
+                dirtyStart = -1;
+                numRanges++;
+            }
+        }
+
+        return (numRanges == 0 ? RESULT_SKIPPED : RESULT_PARTIAL);
+    }
+
+    void invalidate()
+    {
+        valid = false;
+    }
+}
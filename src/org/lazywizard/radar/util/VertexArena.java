@@ -0,0 +1,275 @@
+package org.lazywizard.radar.util;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import com.fs.starfarer.api.Global;
+import org.apache.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBCopyBuffer;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GLContext;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL31.GL_COPY_READ_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+
+/**
+ * A single vertex buffer object that every {@link DrawQueue} sub-allocates
+ * its data from. Each upload is written to fresh space at the end of the
+ * buffer, so data the GPU may still be reading is never overwritten. Once the
+ * end is reached, the buffer's storage is orphaned and all live allocations
+ * are compacted to the start of the new storage, which is resized to fit
+ * what's actually in use. Live data is copied from the old storage on the
+ * graphics card, never from the owning DrawQueues' native buffers, as those
+ * may be in the middle of being refilled.
+ * <p>
+ * The buffer is only bound while uploading or setting array pointers, and
+ * {@link org.lwjgl.opengl.GL15#GL_ARRAY_BUFFER} is always reset to zero
+ * afterwards, so other code can keep using client-side arrays.
+ * <p>
+ * Only used internally by {@link DrawQueue}, and only when
+ * {@link org.lazywizard.radar.RadarSettings#usesSharedVertexBuffer()} is
+ * {@code true}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+final class VertexArena
+{
+    private static final Logger Log = Global.getLogger(VertexArena.class);
+    // Smallest capacity the buffer will shrink to during compaction, in bytes
+    private static final int MIN_CAPACITY = 64 * 1024;
+    // Allocations are padded so every region starts on a 16-byte boundary
+    private static final int ALIGNMENT = 16;
+    private static VertexArena instance = null;
+    private final List<WeakReference<Allocation>> allocations = new ArrayList<>();
+    private final int bufferId;
+    // Copies between buffers on the card if supported, otherwise reads back
+    private final boolean canCopy, useCoreCopy;
+    private int scratchId = 0, capacity = 0, top = 0;
+
+    static VertexArena getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new VertexArena();
+        }
+
+        return instance;
+    }
+
+    private VertexArena()
+    {
+        bufferId = glGenBuffers();
+        final ContextCapabilities caps = GLContext.getCapabilities();
+        useCoreCopy = caps.OpenGL31;
+        canCopy = useCoreCopy || caps.GL_ARB_copy_buffer;
+    }
+
+    int getBufferId()
+    {
+        return bufferId;
+    }
+
+    void bind()
+    {
+        glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+    }
+
+    void release()
+    {
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    private static int align(int size)
+    {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    // Orphans the current storage and moves every live allocation, packed,
+    // to the start of the new storage. Expects the buffer to be bound
+    private void compact(int incoming)
+    {
+        int liveBytes = 0;
+        for (Iterator<WeakReference<Allocation>> iter = allocations.iterator(); iter.hasNext();)
+        {
+            final Allocation alloc = iter.next().get();
+            if (alloc == null || alloc.offset < 0)
+            {
+                iter.remove();
+                continue;
+            }
+
+            liveBytes += align(alloc.size);
+        }
+
+        // Leave room to grow so compaction stays rare, but shrink if usage dropped
+        final int newCapacity = Math.max(MIN_CAPACITY, (liveBytes + align(incoming)) * 2);
+        Log.debug("Compacting shared vertex buffer: " + allocations.size()
+                + " allocations, " + liveBytes + " bytes live, capacity "
+                + capacity + " -> " + newCapacity + " bytes");
+
+        if (liveBytes == 0)
+        {
+            capacity = newCapacity;
+            glBufferData(GL_ARRAY_BUFFER, capacity, GL_STREAM_DRAW);
+            top = 0;
+            return;
+        }
+
+        if (canCopy)
+        {
+            compactOnCard(liveBytes, newCapacity);
+        }
+        else
+        {
+            compactByReadback(liveBytes, newCapacity);
+        }
+
+        top = liveBytes;
+    }
+
+    private void copyBufferSubData(long readOffset, long writeOffset, long size)
+    {
+        if (useCoreCopy)
+        {
+            GL31.glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER,
+                    readOffset, writeOffset, size);
+        }
+        else
+        {
+            ARBCopyBuffer.glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER,
+                    readOffset, writeOffset, size);
+        }
+    }
+
+    // Packs live data into a scratch buffer, then copies it back once orphaned
+    private void compactOnCard(int liveBytes, int newCapacity)
+    {
+        if (scratchId == 0)
+        {
+            scratchId = glGenBuffers();
+        }
+
+        glBindBuffer(GL_COPY_READ_BUFFER, bufferId);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, scratchId);
+        glBufferData(GL_COPY_WRITE_BUFFER, liveBytes, GL_STREAM_COPY);
+        int packed = 0;
+        for (WeakReference<Allocation> ref : allocations)
+        {
+            final Allocation alloc = ref.get();
+            if (alloc == null)
+            {
+                continue;
+            }
+
+            if (alloc.size > 0)
+            {
+                copyBufferSubData(alloc.offset, packed, alloc.size);
+            }
+            alloc.offset = packed;
+            packed += align(alloc.size);
+        }
+
+        capacity = newCapacity;
+        glBufferData(GL_ARRAY_BUFFER, capacity, GL_STREAM_DRAW);
+        glBindBuffer(GL_COPY_READ_BUFFER, scratchId);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+        copyBufferSubData(0, 0, liveBytes);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        // The scratch storage is only needed until the next compaction
+        glBindBuffer(GL_COPY_WRITE_BUFFER, scratchId);
+        glBufferData(GL_COPY_WRITE_BUFFER, 0, GL_STREAM_COPY);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    // Older cards can't copy between buffers, so read live data back first
+    private void compactByReadback(int liveBytes, int newCapacity)
+    {
+        final ByteBuffer temp = BufferUtils.createByteBuffer(liveBytes);
+        int packed = 0;
+        for (WeakReference<Allocation> ref : allocations)
+        {
+            final Allocation alloc = ref.get();
+            if (alloc == null)
+            {
+                continue;
+            }
+
+            if (alloc.size > 0)
+            {
+                temp.limit(packed + alloc.size).position(packed);
+                glGetBufferSubData(GL_ARRAY_BUFFER, alloc.offset, temp);
+            }
+            alloc.offset = packed;
+            packed += align(alloc.size);
+        }
+
+        capacity = newCapacity;
+        glBufferData(GL_ARRAY_BUFFER, capacity, GL_STREAM_DRAW);
+        temp.limit(liveBytes).position(0);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, temp);
+        NativeBuffers.free(temp);
+    }
+
+    /**
+     * Uploads the remaining contents of {@code data} to fresh space in the
+     * shared buffer, freeing {@code alloc}'s previous region. {@code data}'s
+     * position must be zero, and will be left unchanged.
+     *
+     * @param alloc The allocation to (re)place {@code data} in.
+     * @param data  The data to upload.
+     */
+    void upload(Allocation alloc, ByteBuffer data)
+    {
+        bind();
+        free(alloc);
+
+        final int size = data.remaining();
+        if (top + size > capacity)
+        {
+            compact(size);
+        }
+
+        if (size > 0)
+        {
+            glBufferSubData(GL_ARRAY_BUFFER, top, data);
+        }
+
+        alloc.offset = top;
+        alloc.size = size;
+        allocations.add(alloc.ref);
+        top += align(size);
+        release();
+    }
+
+    void free(Allocation alloc)
+    {
+        if (alloc.offset >= 0)
+        {
+            allocations.remove(alloc.ref);
+            alloc.offset = -1;
+        }
+    }
+
+    /**
+     * A region of the shared buffer owned by a single {@link DrawQueue}.
+     * Allocations that are no longer reachable are dropped during the next
+     * compaction.
+     */
+    static final class Allocation
+    {
+        private final WeakReference<Allocation> ref = new WeakReference<>(this);
+        private int offset = -1, size = 0;
+
+        int getOffset()
+        {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package org.lazywizard.radar.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.lazywizard.radar.RadarSettings;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+
+/**
+ * A buffered queue of vertices in an arbitrary {@link VertexFormat}, for
+ * renderers whose vertices need more than the position and color data a
+ * {@link DrawQueue} stores (such as texture coordinates). Vertices are
+ * written attribute by attribute in the order the format lists them, then
+ * grouped into shapes with {@link VertexBatch#finishShape(int)}; consecutive
+ * shapes using a list draw mode are merged into a single draw call.
+ * <p>
+ * Finished data is uploaded to the same shared vertex buffer that
+ * {@link DrawQueue}s use if {@link RadarSettings#usesSharedVertexBuffer()}
+ * is {@code true}, otherwise to a vertex buffer of the batch's own if
+ * {@link RadarSettings#usesVertexBufferObjects()} is {@code true}, and is
+ * only drawn from main memory if neither is enabled. Buffers of its own are
+ * released by {@link VertexBatch#releaseAllBuffers()} at the end of each
+ * battle; a batch that's still in use re-uploads its data the next time it's
+ * drawn.
+ * <p>
+ * Usage is the same as a DrawQueue: {@link VertexBatch#clear()}, write
+ * vertices, {@link VertexBatch#finish()}, then {@link VertexBatch#draw()}
+ * as many times as needed.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public class VertexBatch
+{
+    private static final List<VertexBatch> buffered = new ArrayList<>();
+    private final VertexFormat format;
+    private final int stride;
+    private final VertexArena arena;
+    private final VertexArena.Allocation alloc;
+    // Only used if VBOs are enabled but the shared buffer isn't
+    private final boolean ownsBuffer;
+    private int bufferId = 0;
+    private ByteBuffer data;
+    private int[] batchModes = new int[4], batchEnds = new int[4];
+    private int numBatches = 0, shapeStart = 0;
+    private boolean finished = false;
+
+    /**
+     * Releases the vertex buffer objects of every VertexBatch that has its
+     * own. Called by the radar at the end of each battle, so you should never
+     * need to call it yourself. Batches stay usable afterwards.
+     * <p>
+     * @since 3.1
+     */
+    public static void releaseAllBuffers()
+    {
+        for (VertexBatch batch : new ArrayList<>(buffered))
+        {
+            batch.releaseBuffer();
+        }
+    }
+
+    /**
+     * Creates a new VertexBatch.
+     * <p>
+     * @param format          The layout of each vertex in this batch.
+     * @param initialCapacity The initial maximum number of vertices this
+     *                        batch can hold. It will grow as needed.
+     * <p>
+     * @since 3.1
+     */
+    public VertexBatch(VertexFormat format, int initialCapacity)
+    {
+        this.format = format;
+        stride = format.getStride();
+        data = BufferUtils.createByteBuffer(Math.max(1, initialCapacity) * stride);
+        if (RadarSettings.usesSharedVertexBuffer())
+        {
+            arena = VertexArena.getInstance();
+            alloc = new VertexArena.Allocation();
+        }
+        else
+        {
+            arena = null;
+            alloc = null;
+        }
+
+        // The buffer itself isn't created until this batch is first finished
+        ownsBuffer = (arena == null && RadarSettings.usesVertexBufferObjects());
+    }
+
+    /**
+     * Returns the layout of each vertex in this batch.
+     * <p>
+     * @return This batch's {@link VertexFormat}.
+     * <p>
+     * @since 3.1
+     */
+    public VertexFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Returns how many complete vertices have been written to this batch.
+     * <p>
+     * @return The number of vertices in this batch.
+     * <p>
+     * @since 3.1
+     */
+    public int getNumVertices()
+    {
+        return (finished ? data.limit() : data.position()) / stride;
+    }
+
+    /**
+     * Checks whether this batch contains any finished shapes.
+     * <p>
+     * @return {@code true} if there is nothing to draw, {@code false}
+     *         otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean isEmpty()
+    {
+        return numBatches == 0;
+    }
+
+    /**
+     * Removes all vertices from this batch. Makes no OpenGL calls.
+     * <p>
+     * @since 3.1
+     */
+    public void clear()
+    {
+        data.clear();
+        numBatches = 0;
+        shapeStart = 0;
+        finished = false;
+    }
+
+    /**
+     * Ensures there is room for at least {@code numVertices} more vertices,
+     * growing the batch if there isn't. Call this before writing a shape's
+     * vertices; the {@code put} methods perform no capacity checks. If called
+     * on a finished batch, this will reset it and start a new set of vertex
+     * data.
+     * <p>
+     * @param numVertices How many vertices you are about to write.
+     * <p>
+     * @return {@code true} if the batch had to grow, {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean reserveVertices(int numVertices)
+    {
+        if (finished)
+        {
+            clear();
+        }
+
+        final int required = data.position() + numVertices * stride;
+        if (required <= data.capacity())
+        {
+            return false;
+        }
+
+        // Grow to 150% of the newly required capacity
+        final ByteBuffer oldData = data;
+        oldData.flip();
+        data = BufferUtils.createByteBuffer((int) (required * 1.5f) / stride * stride + stride)
+                .put(oldData);
+        NativeBuffers.free(oldData);
+        return true;
+    }
+
+    /**
+     * Writes a float component of the current vertex.
+     * <p>
+     * @param value The value to write.
+     * <p>
+     * @return This VertexBatch, for chaining calls.
+     * <p>
+     * @since 3.1
+     */
+    public VertexBatch putFloat(float value)
+    {
+        data.putFloat(value);
+        return this;
+    }
+
+    /**
+     * Writes a short component of the current vertex.
+     * <p>
+     * @param value The value to write.
+     * <p>
+     * @return This VertexBatch, for chaining calls.
+     * <p>
+     * @since 3.1
+     */
+    public VertexBatch putShort(short value)
+    {
+        data.putShort(value);
+        return this;
+    }
+
+    /**
+     * Writes a byte component of the current vertex.
+     * <p>
+     * @param value The value to write.
+     * <p>
+     * @return This VertexBatch, for chaining calls.
+     * <p>
+     * @since 3.1
+     */
+    public VertexBatch putByte(byte value)
+    {
+        data.put(value);
+        return this;
+    }
+
+    /**
+     * Writes a four unsigned byte color attribute of the current vertex.
+     * <p>
+     * @param packedRGBA The color to write, packed as {@code 0xRRGGBBAA}.
+     * <p>
+     * @return This VertexBatch, for chaining calls.
+     * <p>
+     * @since 3.1
+     */
+    public VertexBatch putColor(int packedRGBA)
+    {
+        data.put((byte) (packedRGBA >>> 24)).put((byte) (packedRGBA >>> 16))
+                .put((byte) (packedRGBA >>> 8)).put((byte) packedRGBA);
+        return this;
+    }
+
+    /**
+     * Finalizes the current shape, made up of every vertex written since the
+     * last call to this method.
+     * <p>
+     * @param shapeDrawMode The draw mode for this shape (what you would
+     *                      normally call with {@link GL11#glBegin(int)}).
+     * <p>
+     * @since 3.1
+     */
+    public void finishShape(int shapeDrawMode)
+    {
+        if (data.position() % stride != 0)
+        {
+            throw new RuntimeException("Incomplete vertex in VertexBatch! Expected "
+                    + stride + " bytes per vertex");
+        }
+
+        final int end = data.position() / stride;
+        if (end == shapeStart)
+        {
+            return;
+        }
+
+        shapeStart = end;
+        if (numBatches > 0 && batchModes[numBatches - 1] == shapeDrawMode
+                && isListMode(shapeDrawMode))
+        {
+            batchEnds[numBatches - 1] = end;
+            return;
+        }
+
+        if (numBatches == batchModes.length)
+        {
+            batchModes = Arrays.copyOf(batchModes, numBatches * 2);
+            batchEnds = Arrays.copyOf(batchEnds, numBatches * 2);
+        }
+
+        batchModes[numBatches] = shapeDrawMode;
+        batchEnds[numBatches] = end;
+        numBatches++;
+    }
+
+    private static boolean isListMode(int drawMode)
+    {
+        return drawMode == GL_POINTS || drawMode == GL_LINES
+                || drawMode == GL_TRIANGLES || drawMode == GL_QUADS;
+    }
+
+    /**
+     * Uploads this batch's vertices so they can be drawn. Must be called after
+     * every set of changes, before {@link VertexBatch#draw()}.
+     * <p>
+     * @since 3.1
+     */
+    public void finish()
+    {
+        if (finished)
+        {
+            throw new RuntimeException("VertexBatch is already finished!");
+        }
+
+        if (data.position() / stride != shapeStart)
+        {
+            throw new RuntimeException("Must call finishShape() before finishing!");
+        }
+
+        data.flip();
+        if (arena != null)
+        {
+            arena.upload(alloc, data);
+        }
+        else if (ownsBuffer)
+        {
+            uploadToBuffer();
+        }
+
+        finished = true;
+    }
+
+    private void uploadToBuffer()
+    {
+        if (bufferId == 0)
+        {
+            bufferId = glGenBuffers();
+            buffered.add(this);
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+        glBufferData(GL_ARRAY_BUFFER, data, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    private void releaseBuffer()
+    {
+        if (bufferId != 0)
+        {
+            glDeleteBuffers(bufferId);
+            bufferId = 0;
+            buffered.remove(this);
+        }
+    }
+
+    /**
+     * Draws every finished shape in this batch. The arrays this batch's
+     * {@link VertexFormat} uses must be enabled first, for example with
+     * {@link VertexFormat#enableArrays()}.
+     * <p>
+     * @since 3.1
+     */
+    public void draw()
+    {
+        if (!finished)
+        {
+            throw new RuntimeException("Must call finish() before drawing!");
+        }
+
+        if (isEmpty())
+        {
+            return;
+        }
+
+        setPointers();
+        int lastIndex = 0;
+        for (int x = 0; x < numBatches; x++)
+        {
+            glDrawArrays(batchModes[x], lastIndex, batchEnds[x] - lastIndex);
+            lastIndex = batchEnds[x];
+        }
+    }
+
+    /**
+     * Draws a range of this batch's vertices with a single draw call,
+     * ignoring the shapes they were added as. Useful for drawing parts of the
+     * batch with different OpenGL state, such as point sizes. The arrays this
+     * batch's {@link VertexFormat} uses must be enabled first.
+     * <p>
+     * @param drawMode    The draw mode to use, such as
+     *                    {@link org.lwjgl.opengl.GL11#GL_POINTS}.
+     * @param firstVertex The index of the first vertex to draw.
+     * @param numVertices How many vertices to draw.
+     * <p>
+     * @since 3.1
+     */
+    public void draw(int drawMode, int firstVertex, int numVertices)
+    {
+        if (!finished)
+        {
+            throw new RuntimeException("Must call finish() before drawing!");
+        }
+
+        if (firstVertex < 0 || firstVertex + numVertices > getNumVertices())
+        {
+            throw new RuntimeException("Vertex range " + firstVertex + "+" + numVertices
+                    + " is outside of VertexBatch (" + getNumVertices() + " vertices)");
+        }
+
+        if (numVertices <= 0)
+        {
+            return;
+        }
+
+        setPointers();
+        glDrawArrays(drawMode, firstVertex, numVertices);
+    }
+
+    /**
+     * Points this batch's {@link VertexFormat} at its finished vertex data
+     * without drawing anything, for draw calls this class doesn't make
+     * itself (such as instanced draws). The arrays the format uses must be
+     * enabled before drawing.
+     * <p>
+     * @since 3.1
+     */
+    public void setPointers()
+    {
+        if (!finished)
+        {
+            throw new RuntimeException("Must call finish() before drawing!");
+        }
+
+        if (arena != null)
+        {
+            // Shared buffer regions can move whenever another batch is finished
+            arena.bind();
+            format.setPointers(alloc.getOffset());
+            arena.release();
+        }
+        else if (ownsBuffer)
+        {
+            // The buffer may have been released at the end of the last battle
+            if (bufferId == 0)
+            {
+                uploadToBuffer();
+            }
+
+            glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+            format.setPointers(0L);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+        else
+        {
+            format.setPointers(data);
+        }
+    }
+
+    /**
+     * Releases this batch's region of the shared vertex buffer or its own
+     * vertex buffer immediately, instead of when it's garbage collected or the
+     * battle ends. The batch can still be refilled and finished afterwards.
+     * <p>
+     * @since 3.1
+     */
+    public void dispose()
+    {
+        if (arena != null)
+        {
+            arena.free(alloc);
+        }
+
+        releaseBuffer();
+        clear();
+    }
+}
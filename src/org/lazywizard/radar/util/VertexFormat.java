@@ -0,0 +1,423 @@
+package org.lazywizard.radar.util;
+
+import java.nio.ByteBuffer;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Describes the layout of a single interleaved vertex: which attributes it
+ * contains, and the type, component count and byte offset of each. Used by
+ * {@link DrawQueue} and {@link VertexBatch} to set up their vertex pointers,
+ * so every buffered renderer shares one upload and draw path regardless of
+ * what data its vertices carry.
+ * <p>
+ * Position, color and texture coordinate attributes are bound to the
+ * fixed-function client arrays. Generic attributes are bound to consecutive
+ * vertex attribute indices in the order they appear, starting at
+ * {@link VertexFormat#FIRST_GENERIC_INDEX}.
+ *
+ * @author LazyWizard
+ * @since 3.1
+ */
+public final class VertexFormat
+{
+    /** Attribute is bound with {@code glVertexPointer()}. */
+    public static final int USAGE_POSITION = 0;
+    /** Attribute is bound with {@code glColorPointer()}. */
+    public static final int USAGE_COLOR = 1;
+    /** Attribute is bound with {@code glTexCoordPointer()}. */
+    public static final int USAGE_TEXCOORD = 2;
+    /** Attribute is bound with {@code glVertexAttribPointer()}. */
+    public static final int USAGE_GENERIC = 3;
+    /**
+     * The vertex attribute index of a format's first generic attribute.
+     * Index 0 is skipped as some drivers alias it to the vertex position.
+     */
+    public static final int FIRST_GENERIC_INDEX = 1;
+    /** Two float positions. */
+    public static final VertexFormat POSITION_2F = new VertexFormat(
+            new Attribute(USAGE_POSITION, 2, GL_FLOAT, false));
+    /** Two short positions, used for compact vertices. */
+    public static final VertexFormat POSITION_2S = new VertexFormat(
+            new Attribute(USAGE_POSITION, 2, GL_SHORT, false));
+    /** Four unsigned byte colors, used for separate color buffers. */
+    public static final VertexFormat COLOR_4UB = new VertexFormat(
+            new Attribute(USAGE_COLOR, 4, GL_UNSIGNED_BYTE, true));
+    /** Two float positions followed by four unsigned byte colors. */
+    public static final VertexFormat POSITION_2F_COLOR_4UB = new VertexFormat(
+            new Attribute(USAGE_POSITION, 2, GL_FLOAT, false),
+            new Attribute(USAGE_COLOR, 4, GL_UNSIGNED_BYTE, true));
+    /** Two short positions followed by four unsigned byte colors. */
+    public static final VertexFormat POSITION_2S_COLOR_4UB = new VertexFormat(
+            new Attribute(USAGE_POSITION, 2, GL_SHORT, false),
+            new Attribute(USAGE_COLOR, 4, GL_UNSIGNED_BYTE, true));
+    /** Two float positions, two float texture coordinates and four unsigned byte colors. */
+    public static final VertexFormat POSITION_2F_TEXCOORD_2F_COLOR_4UB = new VertexFormat(
+            new Attribute(USAGE_POSITION, 2, GL_FLOAT, false),
+            new Attribute(USAGE_TEXCOORD, 2, GL_FLOAT, false),
+            new Attribute(USAGE_COLOR, 4, GL_UNSIGNED_BYTE, true));
+    private final Attribute[] attributes;
+    private final int stride;
+
+    /**
+     * Creates a new VertexFormat. Attributes are packed in the order given,
+     * with no padding between them.
+     * <p>
+     * @param attributes The attributes each vertex contains. Only one
+     *                   position, color and texture coordinate attribute is
+     *                   allowed.
+     * <p>
+     * @since 3.1
+     */
+    public VertexFormat(Attribute... attributes)
+    {
+        this.attributes = attributes.clone();
+
+        int offset = 0, genericIndex = FIRST_GENERIC_INDEX;
+        for (int x = 0; x < this.attributes.length; x++)
+        {
+            final Attribute attrib = this.attributes[x];
+            if (attrib.usage != USAGE_GENERIC)
+            {
+                for (int y = 0; y < x; y++)
+                {
+                    if (this.attributes[y].usage == attrib.usage)
+                    {
+                        throw new RuntimeException("Duplicate vertex attribute usage: "
+                                + attrib.usage);
+                    }
+                }
+            }
+
+            this.attributes[x] = new Attribute(attrib, offset,
+                    (attrib.usage == USAGE_GENERIC ? genericIndex++ : -1));
+            offset += attrib.getSize();
+        }
+
+        stride = offset;
+    }
+
+    /**
+     * Returns the size of a single vertex in this format.
+     * <p>
+     * @return The number of bytes between the start of consecutive vertices.
+     * <p>
+     * @since 3.1
+     */
+    public int getStride()
+    {
+        return stride;
+    }
+
+    /**
+     * Returns how many attributes each vertex in this format contains.
+     * <p>
+     * @return The number of attributes in this format.
+     * <p>
+     * @since 3.1
+     */
+    public int getNumAttributes()
+    {
+        return attributes.length;
+    }
+
+    /**
+     * Returns an attribute of this format, with its offset filled in.
+     * <p>
+     * @param index The index of the attribute, in the order it was passed
+     *              into the constructor.
+     * <p>
+     * @return The attribute at {@code index}.
+     * <p>
+     * @since 3.1
+     */
+    public Attribute getAttribute(int index)
+    {
+        return attributes[index];
+    }
+
+    /**
+     * Checks whether this format contains an attribute with a specific usage.
+     * <p>
+     * @param usage The usage to check for, such as
+     *              {@link VertexFormat#USAGE_COLOR}.
+     * <p>
+     * @return {@code true} if an attribute with this usage exists,
+     *         {@code false} otherwise.
+     * <p>
+     * @since 3.1
+     */
+    public boolean hasAttribute(int usage)
+    {
+        for (Attribute attrib : attributes)
+        {
+            if (attrib.usage == usage)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Enables the client arrays and generic attribute arrays this format
+     * uses.
+     * <p>
+     * @since 3.1
+     */
+    public void enableArrays()
+    {
+        for (Attribute attrib : attributes)
+        {
+            if (attrib.usage == USAGE_GENERIC)
+            {
+                glEnableVertexAttribArray(attrib.genericIndex);
+            }
+            else
+            {
+                glEnableClientState(getClientState(attrib.usage));
+            }
+        }
+    }
+
+    /**
+     * Disables the client arrays and generic attribute arrays this format
+     * uses.
+     * <p>
+     * @since 3.1
+     */
+    public void disableArrays()
+    {
+        for (Attribute attrib : attributes)
+        {
+            if (attrib.usage == USAGE_GENERIC)
+            {
+                glDisableVertexAttribArray(attrib.genericIndex);
+            }
+            else
+            {
+                glDisableClientState(getClientState(attrib.usage));
+            }
+        }
+    }
+
+    /**
+     * Points each attribute of this format at the buffer object currently
+     * bound to {@code GL_ARRAY_BUFFER}.
+     * <p>
+     * @param offset The byte offset of the first vertex within the buffer.
+     * <p>
+     * @since 3.1
+     */
+    public void setPointers(long offset)
+    {
+        for (Attribute attrib : attributes)
+        {
+            final long pointer = offset + attrib.offset;
+            switch (attrib.usage)
+            {
+                case USAGE_POSITION:
+                    glVertexPointer(attrib.count, attrib.type, stride, pointer);
+                    break;
+                case USAGE_COLOR:
+                    glColorPointer(attrib.count, attrib.type, stride, pointer);
+                    break;
+                case USAGE_TEXCOORD:
+                    glTexCoordPointer(attrib.count, attrib.type, stride, pointer);
+                    break;
+                default:
+                    glVertexAttribPointer(attrib.genericIndex, attrib.count,
+                            attrib.type, attrib.normalized, stride, pointer);
+            }
+        }
+    }
+
+    /**
+     * Points each attribute of this format at vertex data in main memory.
+     * {@code data}'s position must be zero, and will be left unchanged.
+     * <p>
+     * @param data The vertex data, starting with the first vertex.
+     * <p>
+     * @since 3.1
+     */
+    public void setPointers(ByteBuffer data)
+    {
+        for (Attribute attrib : attributes)
+        {
+            data.position(attrib.offset);
+            switch (attrib.usage)
+            {
+                case USAGE_POSITION:
+                    glVertexPointer(attrib.count, attrib.type, stride, data);
+                    break;
+                case USAGE_COLOR:
+                    glColorPointer(attrib.count, attrib.type, stride, data);
+                    break;
+                case USAGE_TEXCOORD:
+                    glTexCoordPointer(attrib.count, attrib.type, stride, data);
+                    break;
+                default:
+                    glVertexAttribPointer(attrib.genericIndex, attrib.count,
+                            attrib.type, attrib.normalized, stride, data);
+            }
+        }
+
+        data.position(0);
+    }
+
+    private static int getClientState(int usage)
+    {
+        switch (usage)
+        {
+            case USAGE_POSITION:
+                return GL_VERTEX_ARRAY;
+            case USAGE_COLOR:
+                return GL_COLOR_ARRAY;
+            default:
+                return GL_TEXTURE_COORD_ARRAY;
+        }
+    }
+
+    private static int getTypeSize(int type)
+    {
+        switch (type)
+        {
+            case GL_BYTE:
+            case GL_UNSIGNED_BYTE:
+                return 1;
+            case GL_SHORT:
+            case GL_UNSIGNED_SHORT:
+                return 2;
+            case GL_INT:
+            case GL_UNSIGNED_INT:
+            case GL_FLOAT:
+                return 4;
+            case GL_DOUBLE:
+                return 8;
+            default:
+                throw new RuntimeException("Unsupported vertex attribute type: " + type);
+        }
+    }
+
+    /**
+     * A single attribute of a {@link VertexFormat}, such as a vertex's
+     * position or color.
+     *
+     * @since 3.1
+     */
+    public static final class Attribute
+    {
+        private final int usage, count, type, offset, genericIndex;
+        private final boolean normalized;
+
+        /**
+         * Creates a new vertex attribute.
+         * <p>
+         * @param usage      How the attribute is used, such as
+         *                   {@link VertexFormat#USAGE_POSITION}.
+         * @param count      How many components the attribute has (1-4).
+         * @param type       The type of each component, such as
+         *                   {@link org.lwjgl.opengl.GL11#GL_FLOAT}.
+         * @param normalized Whether integer components are mapped to the
+         *                   range 0-1 (or -1 to 1 for signed types). Only
+         *                   generic attributes can choose this; colors are
+         *                   always normalized, and positions and texture
+         *                   coordinates never are.
+         * <p>
+         * @since 3.1
+         */
+        public Attribute(int usage, int count, int type, boolean normalized)
+        {
+            if (usage < USAGE_POSITION || usage > USAGE_GENERIC)
+            {
+                throw new RuntimeException("Unknown vertex attribute usage: " + usage);
+            }
+
+            if (count < 1 || count > 4)
+            {
+                throw new RuntimeException("Vertex attributes must have 1-4 components!");
+            }
+
+            // Validates the type
+            getTypeSize(type);
+
+            this.usage = usage;
+            this.count = count;
+            this.type = type;
+            this.normalized = normalized;
+            offset = 0;
+            genericIndex = -1;
+        }
+
+        private Attribute(Attribute other, int offset, int genericIndex)
+        {
+            usage = other.usage;
+            count = other.count;
+            type = other.type;
+            normalized = other.normalized;
+            this.offset = offset;
+            this.genericIndex = genericIndex;
+        }
+
+        public int getUsage()
+        {
+            return usage;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public int getType()
+        {
+            return type;
+        }
+
+        public boolean isNormalized()
+        {
+            return normalized;
+        }
+
+        /**
+         * Returns the size of this attribute within a vertex.
+         * <p>
+         * @return The number of bytes this attribute uses.
+         * <p>
+         * @since 3.1
+         */
+        public int getSize()
+        {
+            return count * getTypeSize(type);
+        }
+
+        /**
+         * Returns where this attribute starts within a vertex. Only valid
+         * for attributes retrieved from a {@link VertexFormat}.
+         * <p>
+         * @return The byte offset of this attribute from the start of its
+         *         vertex.
+         * <p>
+         * @since 3.1
+         */
+        public int getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * Returns the vertex attribute index of a generic attribute. Only
+         * valid for attributes retrieved from a {@link VertexFormat}.
+         * <p>
+         * @return The index passed to {@code glVertexAttribPointer()}, or -1
+         *         if this isn't a generic attribute.
+         * <p>
+         * @since 3.1
+         */
+        public int getGenericIndex()
+        {
+            return genericIndex;
+        }
+    }
+}